@@ -35,7 +35,7 @@ public class ArgumentParser {
 
     /**
      * @param subOptions is group of options that contains all optional options
-     * (summary, fetch_gene, fetch_cds, fetch_features, find_sites).
+     * (summary, fetch_gene, fetch_cds, fetch_features, find_sites, digest).
      */
     private final OptionGroup subOptions;
 
@@ -96,12 +96,23 @@ public class ArgumentParser {
                         + " and (if relevant) the gene in which it resides.")
                 .build();
 
+        Option digest = Option.builder("D")
+                .argName("MOTIFS")
+                .hasArg()
+                .longOpt("digest")
+                .desc("Lists the sites of several motifs found in one pass, grouped by motif, with the fragment sizes"
+                        + " of each motif. Give a comma separated list of enzyme names ("
+                        + String.join(", ", MotifDigest.getPanelNames()) + "), '" + MotifDigest.PANEL_KEYWORD
+                        + "' for all of them or name=IUPAC site items, ^ marks the cut position.")
+                .build();
+
         /* Add optional options to subOptions and add main options (incl subOptions Group) to all available options. */
         subOptions.addOption(summary);
         subOptions.addOption(fetchGene);
         subOptions.addOption(fetchCds);
         subOptions.addOption(fetchFeatures);
         subOptions.addOption(findSites);
+        subOptions.addOption(digest);
         allOptions.addOption(help);
         allOptions.addOption(infile);
         allOptions.addOptionGroup(subOptions);
@@ -140,6 +151,9 @@ public class ArgumentParser {
                 } else if (cmdArguments.hasOption("S")) {
                     parsedArguments.add(1, "find_sites");
                     parsedArguments.add(2, cmdArguments.getOptionValue("S"));
+                } else if (cmdArguments.hasOption("D")) {
+                    parsedArguments.add(1, "digest");
+                    parsedArguments.add(2, cmdArguments.getOptionValue("D"));
                 }
                 return parsedArguments;
             }
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Input stream that decompresses BGZF (blocked gzip) data. The compressed size of every gzip member is stored in its
+ * header, so members are read ahead and inflated in parallel on an executor while the caller consumes the previous
+ * ones. The number of members in flight is bounded, which bounds the memory used.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class BgzfInputStream extends InputStream {
+
+    /**
+     * @param HEADER_SIZE is the number of bytes needed to recognise a BGZF header.
+     */
+    static final int HEADER_SIZE = 18;
+
+    /**
+     * @param MAX_BLOCK_SIZE is the largest inflated size of a BGZF member.
+     */
+    private static final int MAX_BLOCK_SIZE = 65536;
+
+    /**
+     * @param in is the stream with the compressed members.
+     */
+    private final DataInputStream in;
+
+    /**
+     * @param executor runs the inflation of the members.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * @param readAhead is the maximum number of members in flight.
+     */
+    private final int readAhead;
+
+    /**
+     * @param pending contains the members that are being inflated, in stream order.
+     */
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * @param current is the inflated member that is being read.
+     */
+    private byte[] current = new byte[0];
+
+    /**
+     * @param position is the next unread index in current.
+     */
+    private int position;
+
+    /**
+     * @param endOfInput is true when all members have been read from in.
+     */
+    private boolean endOfInput;
+
+    /**
+     * Constructor for a BGZF stream.
+     * @param in contains the compressed data, starting at a member header.
+     * @param executor runs the inflation of the members.
+     * @param readAhead is the maximum number of members in flight.
+     */
+    BgzfInputStream(final InputStream in, final ExecutorService executor, final int readAhead) {
+        this.in = new DataInputStream(in);
+        this.executor = executor;
+        this.readAhead = Math.max(1, readAhead);
+    }
+
+    /**
+     * Check if the start of a stream is a BGZF member header: gzip with an extra field holding a BC subfield.
+     * @param header contains the first bytes of the stream.
+     * @param length is the number of valid bytes in header.
+     * @return true when the stream is BGZF.
+     */
+    static boolean isBgzfHeader(final byte[] header, final int length) {
+        return length >= HEADER_SIZE && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b
+                && header[2] == 8 && (header[3] & 0x04) != 0 && header[12] == 'B' && header[13] == 'C'
+                && header[14] == 2 && header[15] == 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Make sure there are unread bytes in current, waiting for the next inflated member when needed.
+     * @return false at the end of the stream.
+     * @throws IOException when reading or inflating fails.
+     */
+    private boolean fill() throws IOException {
+        while (position >= current.length) {
+            schedule();
+            Future<byte[]> next = pending.poll();
+            if (next == null) {
+                return false;
+            }
+            try {
+                current = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decompressing.", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Read members from the compressed stream until the read ahead limit is reached and submit them for inflation.
+     * @throws IOException when reading fails.
+     */
+    private void schedule() throws IOException {
+        while (!endOfInput && pending.size() < readAhead) {
+            final byte[] member = readMember();
+            if (member == null) {
+                endOfInput = true;
+            } else {
+                pending.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return inflate(member);
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Read one complete gzip member, its size is taken from the BC subfield.
+     * @return the bytes of the member or null at the end of the stream.
+     * @throws IOException when the member is not a valid BGZF member.
+     */
+    private byte[] readMember() throws IOException {
+        byte[] header = new byte[12];
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        header[0] = (byte) first;
+        in.readFully(header, 1, header.length - 1);
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || (header[3] & 0x04) == 0) {
+            throw new ZipException("Not a BGZF member header.");
+        }
+
+        /* Walk the extra subfields to find the total member size. */
+        int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        byte[] extra = new byte[extraLength];
+        in.readFully(extra);
+        int memberSize = -1;
+        for (int i = 0; i + 4 <= extraLength;) {
+            int subfieldLength = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= extraLength) {
+                memberSize = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+            }
+            i += 4 + subfieldLength;
+        }
+        if (memberSize < header.length + extraLength + 8) {
+            throw new ZipException("BGZF member without a valid block size.");
+        }
+
+        byte[] member = new byte[memberSize];
+        System.arraycopy(header, 0, member, 0, header.length);
+        System.arraycopy(extra, 0, member, header.length, extraLength);
+        try {
+            in.readFully(member, header.length + extraLength, memberSize - header.length - extraLength);
+        } catch (EOFException e) {
+            throw new ZipException("Truncated BGZF member.");
+        }
+        return member;
+    }
+
+    /**
+     * Inflate one gzip member and check its CRC and size.
+     * @param member contains the complete member.
+     * @return the inflated bytes.
+     * @throws IOException when the member is corrupt.
+     */
+    private static byte[] inflate(final byte[] member) throws IOException {
+        int extraLength = (member[10] & 0xff) | (member[11] & 0xff) << 8;
+        int dataStart = 12 + extraLength;
+        int trailer = member.length - 8;
+        long crc = readInt(member, trailer) & 0xffffffffL;
+        int size = readInt(member, trailer + 4);
+
+        /* The size comes from the upload, check it before the output buffer is allocated. */
+        if (size < 0 || size > MAX_BLOCK_SIZE) {
+            throw new ZipException("BGZF member with an invalid inflated size of " + (size & 0xffffffffL) + ".");
+        }
+        byte[] output = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, dataStart, trailer - dataStart);
+            int inflated = 0;
+            while (inflated < size && !inflater.finished()) {
+                int count = inflater.inflate(output, inflated, size - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != size) {
+                throw new ZipException("Corrupt BGZF member, size does not match.");
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt BGZF member: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 check = new CRC32();
+        check.update(output, 0, output.length);
+        if (check.getValue() != crc) {
+            throw new ZipException("Corrupt BGZF member, CRC does not match.");
+        }
+        return output;
+    }
+
+    /**
+     * Read a little endian int.
+     * @param bytes contains the int.
+     * @param offset is the index of the first byte.
+     * @return the int value.
+     */
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        in.close();
+    }
+}
@@ -5,11 +5,18 @@
 
 package nl.bioinf.wvanhelvoirt.genbankreader;
 
+import java.io.Serializable;
+
 /**
  * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
  * @version 1.0.0
  */
-public class CodingSequence {
+public class CodingSequence implements Serializable {
+
+    /**
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
 
     /**
      * @param coordinates is a Coordinates object that contains start and stop coordinates.
@@ -17,25 +24,45 @@ public class CodingSequence {
     private final Coordinates coordinates;
 
     /**
-     * @param product is a string that contains the CDS name.
+     * @param product is the shared symbol of the CDS name, null until decoded from qualifiers.
      */
-    private final String product;
+    private StringDictionary.Symbol product;
 
     /**
-     * @param proteinID is a string that contains the protein id of the cds.
+     * @param proteinID is a string that contains the protein id of the cds, null until decoded from qualifiers.
      */
-    private final String proteinID;
+    private String proteinID;
 
     /**
-     * @param translation is a string that contains the translated aminoacid sequence.
+     * @param translation is a string that contains the translated aminoacid sequence, null until decoded from qualifiers.
      */
-    private final String translation;
+    private String translation;
 
     /**
      * @param direction is a SequenceOrientation object that contains the orientation of the gene sequence.
      */
     private final SequenceOrientation direction;
 
+    /**
+     * @param qualifiers contains the qualifier lines of the CDS, null when all values were given.
+     */
+    private final QualifierSource qualifiers;
+
+    /**
+     * @param qualifierStart is the offset of the first qualifier line in qualifiers.
+     */
+    private final int qualifierStart;
+
+    /**
+     * @param qualifierEnd is the offset after the last qualifier line in qualifiers.
+     */
+    private final int qualifierEnd;
+
+    /**
+     * @param gene is the gene of this CDS, null when no gene was linked.
+     */
+    private Gene gene;
+
     /**
     * Constructor for a single CDS.
     * @param coordinates contains start and stop coordinates of gene.
@@ -51,10 +78,34 @@ public class CodingSequence {
             final SequenceOrientation direction) {
 
         this.coordinates = coordinates;
-        this.product = product;
+        this.product = StringDictionary.getShared().intern(product);
         this.proteinID = proteinID;
         this.translation = translation;
         this.direction = direction;
+        this.qualifiers = null;
+        this.qualifierStart = 0;
+        this.qualifierEnd = 0;
+    }
+
+    /**
+    * Constructor for a CDS whose qualifiers are decoded on first access.
+    * @param coordinates contains start and stop coordinates of gene.
+    * @param direction contains the direction of the gene sequence.
+    * @param qualifiers contains the qualifier lines of the record.
+    * @param qualifierStart is the offset of the first qualifier line of the CDS.
+    * @param qualifierEnd is the offset after the last qualifier line of the CDS.
+    */
+    CodingSequence(final Coordinates coordinates,
+            final SequenceOrientation direction,
+            final QualifierSource qualifiers,
+            final int qualifierStart,
+            final int qualifierEnd) {
+
+        this.coordinates = coordinates;
+        this.direction = direction;
+        this.qualifiers = qualifiers;
+        this.qualifierStart = qualifierStart;
+        this.qualifierEnd = qualifierEnd;
     }
 
     /**
@@ -70,6 +121,25 @@ public class CodingSequence {
     * @return product.
     */
     public String getProduct() {
+        return getProductSymbol().getValue();
+    }
+
+    /**
+    * Get the id of the product name in the shared dictionary, CDS(s) with equal products have equal ids.
+    * @return product id.
+    */
+    public int getProductId() {
+        return getProductSymbol().getId();
+    }
+
+    /**
+    * Get the shared symbol of the product name, decoding it on first access.
+    * @return product symbol.
+    */
+    private StringDictionary.Symbol getProductSymbol() {
+        if (product == null) {
+            product = StringDictionary.getShared().intern(decode("product"));
+        }
         return product;
     }
 
@@ -78,6 +148,9 @@ public class CodingSequence {
     * @return proteinID.
     */
     public String getProteinID() {
+        if (proteinID == null) {
+            proteinID = decode("protein_id");
+        }
         return proteinID;
     }
 
@@ -86,9 +159,39 @@ public class CodingSequence {
     * @return translation.
     */
     public String getTranslation() {
+        if (translation == null) {
+            translation = decode("translation");
+        }
         return translation;
     }
 
+    /**
+    * Get the value of a qualifier of this CDS, decoded from the record text.
+    * @param name is the qualifier name without slash, for example locus_tag.
+    * @return the value or null when the CDS has no such qualifier.
+    */
+    public String getQualifier(final String name) {
+        return qualifiers == null ? null : qualifiers.decode(qualifierStart, qualifierEnd, name);
+    }
+
+    /**
+    * Decode a qualifier that has a getter, a missing qualifier gives an empty string.
+    * @param name is the qualifier name.
+    * @return the value or an empty string.
+    */
+    private String decode(final String name) {
+        String value = getQualifier(name);
+        return value != null ? value : "";
+    }
+
+    /**
+    * Get the qualifier lines this CDS decodes its qualifiers from.
+    * @return qualifiers or null when all values were given.
+    */
+    QualifierSource getQualifierSource() {
+        return qualifiers;
+    }
+
     /**
     * Get the sequence direction.
     * @return direction.
@@ -97,6 +200,22 @@ public class CodingSequence {
         return direction;
     }
 
+    /**
+    * Get the gene of this CDS.
+    * @return gene or null when the CDS has no gene.
+    */
+    public Gene getGene() {
+        return gene;
+    }
+
+    /**
+    * Link this CDS to its gene.
+    * @param gene is the gene of this CDS.
+    */
+    void setGene(final Gene gene) {
+        this.gene = gene;
+    }
+
     @Override
     public String toString() {
         return "Coordinates: " + getCoordinates() + ", Product: " + getProduct() + ", Protein id: " + getProteinID()
@@ -5,11 +5,21 @@
 
 package nl.bioinf.wvanhelvoirt.genbankreader;
 
+import java.io.Serializable;
+
 /**
+ * Location of a feature: its first and last coordinate and, for a join or order, its segments. A location across the
+ * origin of a circular sequence has a first coordinate that is higher than its last one.
+ *
  * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
  * @version 1.0.0
  */
-public class Coordinates {
+public class Coordinates implements Serializable {
+
+    /**
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
 
     /**
      * @param first is a integer start coordinate.
@@ -21,6 +31,31 @@ public class Coordinates {
      */
     private final long last;
 
+    /**
+     * @param segmentStarts contains the start of each segment in biological order, null for a single segment.
+     */
+    private final int[] segmentStarts;
+
+    /**
+     * @param segmentEnds contains the end of each segment in biological order, null for a single segment.
+     */
+    private final int[] segmentEnds;
+
+    /**
+     * @param segmentReverse is true for each segment on the complementary strand, null for a single segment.
+     */
+    private final boolean[] segmentReverse;
+
+    /**
+     * @param partialStart is true when the location has a &lt; marker.
+     */
+    private final boolean partialStart;
+
+    /**
+     * @param partialEnd is true when the location has a &gt; marker.
+     */
+    private final boolean partialEnd;
+
     /**
     * Constructor creating the start and stop coordinates.
     * @param first contains start coordinate.
@@ -29,8 +64,50 @@ public class Coordinates {
     public Coordinates(final long first,
             final long last) {
 
+        this(first, last, false, false);
+    }
+
+    /**
+    * Constructor creating the start and stop coordinates of a partial location.
+    * @param first contains start coordinate.
+    * @param last contains stop coordinate.
+    * @param partialStart is true when the location has a &lt; marker.
+    * @param partialEnd is true when the location has a &gt; marker.
+    */
+    public Coordinates(final long first,
+            final long last,
+            final boolean partialStart,
+            final boolean partialEnd) {
+
+        this(first, last, null, null, null, partialStart, partialEnd);
+    }
+
+    /**
+    * Constructor creating the coordinates of a location with several segments (join or order).
+    * The arrays are used as given, not copied.
+    * @param first contains lowest start coordinate.
+    * @param last contains highest stop coordinate.
+    * @param segmentStarts contains the start of each segment in biological order.
+    * @param segmentEnds contains the end of each segment in biological order.
+    * @param segmentReverse is true for each segment on the complementary strand.
+    * @param partialStart is true when the location has a &lt; marker.
+    * @param partialEnd is true when the location has a &gt; marker.
+    */
+    Coordinates(final long first,
+            final long last,
+            final int[] segmentStarts,
+            final int[] segmentEnds,
+            final boolean[] segmentReverse,
+            final boolean partialStart,
+            final boolean partialEnd) {
+
         this.first = first;
         this.last = last;
+        this.segmentStarts = segmentStarts;
+        this.segmentEnds = segmentEnds;
+        this.segmentReverse = segmentReverse;
+        this.partialStart = partialStart;
+        this.partialEnd = partialEnd;
     }
 
     /**
@@ -49,6 +126,120 @@ public class Coordinates {
         return last;
     }
 
+    /**
+    * Get number of segments, 1 for a plain range.
+    * @return segment count.
+    */
+    public int getSegmentCount() {
+        return segmentStarts == null ? 1 : segmentStarts.length;
+    }
+
+    /**
+    * Get start coordinate of a segment.
+    * @param index is the segment index in biological order.
+    * @return segment start.
+    */
+    public long getSegmentStart(final int index) {
+        return segmentStarts == null ? first : segmentStarts[index];
+    }
+
+    /**
+    * Get stop coordinate of a segment.
+    * @param index is the segment index in biological order.
+    * @return segment stop.
+    */
+    public long getSegmentEnd(final int index) {
+        return segmentEnds == null ? last : segmentEnds[index];
+    }
+
+    /**
+    * Check if a segment lies on the complementary strand. A plain range has no strand of its own, the direction of
+    * its feature applies.
+    * @param index is the segment index in biological order.
+    * @return true for a complemented segment.
+    */
+    public boolean isSegmentReverse(final int index) {
+        return segmentReverse != null && segmentReverse[index];
+    }
+
+    /**
+    * Check if the location crosses the origin of a circular sequence, from its first coordinate to the end of the
+    * sequence and on from the start of the sequence to its last coordinate.
+    * @return true for a wrapped location.
+    */
+    public boolean isWrapped() {
+        return first > last;
+    }
+
+    /**
+    * Check if the location has segments on both strands.
+    * @return true for a mixed strand location.
+    */
+    public boolean isMixedStrand() {
+        if (segmentReverse == null) {
+            return false;
+        }
+        for (boolean reverse : segmentReverse) {
+            if (reverse != segmentReverse[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+    * Get the number of bases from the first to the last coordinate, across the origin for a wrapped location.
+    * @param sequenceLength is the length of the sequence of the location.
+    * @return span in bases.
+    */
+    public long getSpan(final long sequenceLength) {
+        return isWrapped() ? sequenceLength - first + 1 + last : last - first + 1;
+    }
+
+    /**
+    * Get the number of bases in the segments of the location.
+    * @return base count.
+    */
+    public long getBaseCount() {
+        long bases = 0;
+        for (int s = 0; s < getSegmentCount(); s++) {
+            bases += Math.max(getSegmentEnd(s) - getSegmentStart(s) + 1, 0);
+        }
+        return bases;
+    }
+
+    /**
+    * Get the number of bases the segments of this location share with the segments of another location.
+    * @param other is the other location.
+    * @return overlap in bases.
+    */
+    public long getOverlap(final Coordinates other) {
+        long shared = 0;
+        for (int s = 0; s < getSegmentCount(); s++) {
+            for (int t = 0; t < other.getSegmentCount(); t++) {
+                shared += Math.max(Math.min(getSegmentEnd(s), other.getSegmentEnd(t))
+                        - Math.max(getSegmentStart(s), other.getSegmentStart(t)) + 1, 0);
+            }
+        }
+        return shared;
+    }
+
+    /**
+    * Get partialStart value.
+    * @return partialStart.
+    */
+    public boolean isPartialStart() {
+        return partialStart;
+    }
+
+    /**
+    * Get partialEnd value.
+    * @return partialEnd.
+    */
+    public boolean isPartialEnd() {
+        return partialEnd;
+    }
+
     @Override
     public String toString() {
         return "Start: " + getFirst() + ", Stop: " + getLast();
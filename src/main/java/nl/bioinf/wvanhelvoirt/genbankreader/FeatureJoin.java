@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Links every CDS of a record to its gene, once, when the record is assembled. A CDS belongs to the gene with the
+ * same start, end and strand. A CDS without such a gene, for example a spliced CDS inside a longer gene, belongs to
+ * the gene with the same locus_tag, and else to the gene on the same strand that overlaps at least half of the CDS
+ * the most. The links are found with hash lookups and one interval index instead of a scan per CDS.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class FeatureJoin {
+
+    /**
+     * Constructor, this class only has static methods.
+     */
+    private FeatureJoin() {
+    }
+
+    /**
+     * Link the CDS(s) of a record to its genes.
+     * @param genes contains the genes of the record.
+     * @param cdsElements contains the CDS(s) of the record.
+     */
+    static void link(final List<Gene> genes, final List<CodingSequence> cdsElements) {
+        if (genes.isEmpty() || cdsElements.isEmpty()) {
+            return;
+        }
+
+        /* Join on start, end and strand, the first gene of a location is used. */
+        Map<String, Gene> byLocation = new HashMap<>(genes.size() * 2);
+        for (Gene g : genes) {
+            String key = key(g.getCoordinates(), g.getDirection());
+            if (!byLocation.containsKey(key)) {
+                byLocation.put(key, g);
+            }
+        }
+        Gene[] owners = new Gene[cdsElements.size()];
+        boolean unlinked = false;
+        for (int i = 0; i < owners.length; i++) {
+            CodingSequence c = cdsElements.get(i);
+            owners[i] = byLocation.get(key(c.getCoordinates(), c.getDirection()));
+            unlinked |= owners[i] == null;
+        }
+        if (unlinked) {
+            findOwners(genes, cdsElements, owners);
+        }
+
+        /* Link in record order, so the CDS(s) of a gene keep the order of the record. */
+        for (int i = 0; i < owners.length; i++) {
+            if (owners[i] != null) {
+                owners[i].addCodingSequence(cdsElements.get(i));
+                cdsElements.get(i).setGene(owners[i]);
+            }
+        }
+    }
+
+    /**
+     * Link the CDS(s) of a record to the genes found by an earlier join, for example when reading a snapshot. A
+     * snapshot has no qualifiers, so joining again could not use the locus_tag and could link differently.
+     * @param genes contains the genes of the record.
+     * @param cdsElements contains the CDS(s) of the record.
+     * @param geneIds contains the gene list index of each CDS, -1 for a CDS without gene.
+     */
+    static void link(final List<Gene> genes, final List<CodingSequence> cdsElements, final int[] geneIds) {
+        for (int i = 0; i < geneIds.length; i++) {
+            if (geneIds[i] >= 0) {
+                genes.get(geneIds[i]).addCodingSequence(cdsElements.get(i));
+                cdsElements.get(i).setGene(genes.get(geneIds[i]));
+            }
+        }
+    }
+
+    /**
+     * Find the genes of the CDS(s) that do not have a gene with the same location, by locus_tag or by overlap.
+     * @param genes contains the genes of the record.
+     * @param cdsElements contains the CDS(s) of the record.
+     * @param owners contains the gene of each CDS, the missing genes are filled in where found.
+     */
+    private static void findOwners(final List<Gene> genes, final List<CodingSequence> cdsElements,
+            final Gene[] owners) {
+
+        /* Join the rest on locus_tag, else on the best overlap. */
+        Map<String, Gene> byLocusTag = new HashMap<>(genes.size() * 2);
+        List<Coordinates> coordinates = new ArrayList<>(genes.size());
+        for (Gene g : genes) {
+            String locusTag = g.getQualifier("locus_tag");
+            if (locusTag != null && !byLocusTag.containsKey(locusTag)) {
+                byLocusTag.put(locusTag, g);
+            }
+            coordinates.add(g.getCoordinates());
+        }
+        IntervalIndex geneIndex = new IntervalIndex(coordinates);
+        for (int i = 0; i < owners.length; i++) {
+            if (owners[i] == null) {
+                CodingSequence c = cdsElements.get(i);
+                String locusTag = c.getQualifier("locus_tag");
+                owners[i] = locusTag == null ? null : byLocusTag.get(locusTag);
+                if (owners[i] == null) {
+                    owners[i] = bestOverlap(genes, geneIndex, c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the gene on the strand of a CDS that overlaps the most of its bases, at least half. The overlap is counted
+     * segment by segment, so introns and a location across the origin are not counted as covered.
+     * @param genes contains the genes of the record.
+     * @param geneIndex is the interval index on the gene coordinates.
+     * @param cds is the CDS.
+     * @return the gene or null.
+     */
+    private static Gene bestOverlap(final List<Gene> genes, final IntervalIndex geneIndex, final CodingSequence cds) {
+        Coordinates location = cds.getCoordinates();
+        Set<Integer> candidates = new TreeSet<>();
+        for (int s = 0; s < location.getSegmentCount(); s++) {
+            for (int geneId : geneIndex.query(location.getSegmentStart(s), location.getSegmentEnd(s),
+                    RangeMode.OVERLAP)) {
+                candidates.add(geneId);
+            }
+        }
+
+        long best = (location.getBaseCount() + 1) / 2;
+        Gene found = null;
+        for (int geneId : candidates) {
+            Gene g = genes.get(geneId);
+            long overlap = location.getOverlap(g.getCoordinates());
+            if (g.getDirection() == cds.getDirection() && overlap >= best && (found == null || overlap > best)) {
+                best = overlap;
+                found = g;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the join key of a location.
+     * @param coordinates contains the start and end.
+     * @param direction is the strand.
+     * @return key string.
+     */
+    private static String key(final Coordinates coordinates, final SequenceOrientation direction) {
+        return coordinates.getFirst() + ":" + coordinates.getLast() + ":" + direction;
+    }
+}
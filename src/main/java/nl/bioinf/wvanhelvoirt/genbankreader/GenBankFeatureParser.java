@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parser for the gene, CDS and source entries of a feature table. The entries are split at feature key boundaries
+ * into chunks that are parsed independently, in parallel on a ForkJoinPool for large tables, and concatenated in
+ * their original order. Serial and parallel parsing therefore give the same result.
+ *
+ * Only the key and location of a feature are parsed here. Genes and CDS(s) keep the offsets of their qualifier lines
+ * in the shared QualifierSource and decode a qualifier on first access, so the parse time depends on the number of
+ * features and not on the amount of qualifier text.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class GenBankFeatureParser {
+
+    /**
+     * @param CHUNK_SIZE is the number of features parsed by one task.
+     */
+    static final int CHUNK_SIZE = 512;
+
+    /**
+     * @param PARALLEL_THRESHOLD is the number of features below which the table is parsed serially.
+     */
+    static final int PARALLEL_THRESHOLD = 2 * CHUNK_SIZE;
+
+    /**
+     * @param source contains the feature lines, separated by newlines.
+     */
+    private final QualifierSource source;
+
+    /**
+     * @param text is the text of source.
+     */
+    private final String text;
+
+    /**
+     * @param line is the reusable view on the current line of text.
+     */
+    private final Slice line = new Slice();
+
+    /**
+     * @param result collects the features of the parsed chunk.
+     */
+    private final Chunk result = new Chunk();
+
+    /**
+     * @param featureKey is the key of the current feature.
+     */
+    private String featureKey;
+
+    /**
+     * @param location is the buffer for the location of the current feature.
+     */
+    private final StringBuilder location = new StringBuilder();
+
+    /**
+     * @param locationParser parses the location of each feature into reused buffers.
+     */
+    private final LocationParser locationParser = new LocationParser();
+
+    /**
+     * Constructor for a parser of one chunk.
+     * @param source contains the feature lines.
+     */
+    private GenBankFeatureParser(final QualifierSource source) {
+        this.source = source;
+        this.text = source.getText();
+    }
+
+    /**
+     * Parse all features of a feature table.
+     * @param source contains the lines of the gene, CDS and source features, each line ends with a newline.
+     * @param starts contains the start offset of each feature in the text followed by the length of the text.
+     * @param count is the number of features.
+     * @param pool is the pool for parallel parsing, null to parse serially.
+     * @return Chunk with the organism, genes and CDS(s) in feature table order.
+     */
+    static Chunk parseAll(final QualifierSource source, final int[] starts, final int count,
+            final ForkJoinPool pool) {
+        if (pool == null || count < PARALLEL_THRESHOLD) {
+            return new GenBankFeatureParser(source).parse(starts, 0, count);
+        }
+
+        /* Start one task per chunk, then join them in order so the lists keep the feature table order. */
+        List<ChunkTask> tasks = new ArrayList<>();
+        for (int from = 0; from < count; from += CHUNK_SIZE) {
+            ChunkTask task = new ChunkTask(source, starts, from, Math.min(count, from + CHUNK_SIZE));
+            pool.execute(task);
+            tasks.add(task);
+        }
+        Chunk all = new Chunk();
+        for (ChunkTask task : tasks) {
+            all.append(task.join());
+        }
+        return all;
+    }
+
+    /**
+     * Parse the features from index from (inclusive) to index to (exclusive).
+     * @param starts contains the start offset of each feature.
+     * @param from is the first feature to parse.
+     * @param to is the feature after the last one to parse.
+     * @return Chunk with the parsed features.
+     */
+    private Chunk parse(final int[] starts, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            int end = starts[i + 1];
+            int lineEnd = lineEnd(starts[i], end);
+            line.set(text, starts[i], lineEnd);
+            startFeature(line);
+
+            /* The location continues until the first line that starts with a slash. */
+            int lineStart = lineEnd + 1;
+            while (lineStart < end) {
+                lineEnd = lineEnd(lineStart, end);
+                line.set(text, lineStart, lineEnd);
+                int first = GenBankText.skipSpaces(line, 0);
+                if (first < line.length() && line.charAt(first) == '/') {
+                    break;
+                }
+                GenBankText.appendTrimmed(location, line, first);
+                lineStart = lineEnd + 1;
+            }
+            finishFeature(Math.min(lineStart, end), end);
+        }
+        return result;
+    }
+
+    /**
+     * Get the end of the line that starts at the given offset.
+     * @param lineStart is the offset of the line.
+     * @param end is the end of the feature.
+     * @return the offset of the newline or end.
+     */
+    private int lineEnd(final int lineStart, final int end) {
+        int lineEnd = text.indexOf('\n', lineStart);
+        return lineEnd < 0 || lineEnd > end ? end : lineEnd;
+    }
+
+    /**
+     * Read the key and the location part of the first line of a feature.
+     * @param line contains the first feature line.
+     */
+    private void startFeature(final CharSequence line) {
+        featureKey = null;
+        if (GenBankText.isFeatureKey(line, "gene")) {
+            featureKey = "gene";
+        } else if (GenBankText.isFeatureKey(line, "CDS")) {
+            featureKey = "CDS";
+        } else if (GenBankText.isFeatureKey(line, "source")) {
+            featureKey = "source";
+        }
+        location.setLength(0);
+        GenBankText.appendTrimmed(location, line, Math.min(GenBankText.FEATURE_VALUE_COLUMN, line.length()));
+    }
+
+    /**
+     * Create a Gene or CodingSequence object for the current feature.
+     * @param qualifierStart is the offset of the first qualifier line.
+     * @param qualifierEnd is the offset after the last qualifier line.
+     */
+    private void finishFeature(final int qualifierStart, final int qualifierEnd) {
+        if (featureKey == null) {
+            return;
+        }
+        if ("source".equals(featureKey)) {
+            if (result.organism.isEmpty()) {
+                String organism = source.decode(qualifierStart, qualifierEnd, "organism");
+                result.organism = organism != null ? organism : "";
+            }
+            return;
+        }
+
+        /* Parse the location into coordinates, the strand of its segments is the direction of the feature. */
+        Coordinates cs = locationParser.parse(location);
+        SequenceOrientation direction = locationParser.getDirection();
+
+        if (cs != null) {
+            if ("CDS".equals(featureKey)) {
+                result.cdsElements.add(new CodingSequence(cs, direction, source, qualifierStart, qualifierEnd));
+            } else {
+                result.geneElements.add(new Gene(cs, direction, source, qualifierStart, qualifierEnd));
+            }
+        }
+    }
+
+    /**
+     * Parsed features of a chunk of the feature table.
+     */
+    static final class Chunk {
+
+        /**
+         * @param organism is the organism of the first source feature, empty when there is none.
+         */
+        private String organism = "";
+
+        /**
+         * @param cdsElements is a list with CodingSequence elements.
+         */
+        private final List<CodingSequence> cdsElements = new ArrayList<>();
+
+        /**
+         * @param geneElements is a list with Gene elements.
+         */
+        private final List<Gene> geneElements = new ArrayList<>();
+
+        /**
+         * Append the features of a following chunk.
+         * @param next is the chunk after this one.
+         */
+        private void append(final Chunk next) {
+            if (organism.isEmpty()) {
+                organism = next.organism;
+            }
+            cdsElements.addAll(next.cdsElements);
+            geneElements.addAll(next.geneElements);
+        }
+
+        /**
+        * Get organism name.
+        * @return organism.
+        */
+        String getOrganism() {
+            return organism;
+        }
+
+        /**
+        * Get list with CodingSequence objects.
+        * @return cdsElements.
+        */
+        List<CodingSequence> getCdsElements() {
+            return cdsElements;
+        }
+
+        /**
+        * Get list with Gene objects.
+        * @return geneElements.
+        */
+        List<Gene> getGeneElements() {
+            return geneElements;
+        }
+    }
+
+    /**
+     * Task that parses one chunk of features.
+     */
+    private static final class ChunkTask extends RecursiveTask<Chunk> {
+
+        /**
+         * @param serialVersionUID is the version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param source contains the feature lines.
+         */
+        private final QualifierSource source;
+
+        /**
+         * @param starts contains the start offset of each feature.
+         */
+        private final int[] starts;
+
+        /**
+         * @param from is the first feature to parse.
+         */
+        private final int from;
+
+        /**
+         * @param to is the feature after the last one to parse.
+         */
+        private final int to;
+
+        /**
+         * Constructor for a chunk task.
+         * @param source contains the feature lines.
+         * @param starts contains the start offset of each feature.
+         * @param from is the first feature to parse.
+         * @param to is the feature after the last one to parse.
+         */
+        private ChunkTask(final QualifierSource source, final int[] starts, final int from, final int to) {
+            this.source = source;
+            this.starts = starts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Chunk compute() {
+            return new GenBankFeatureParser(source).parse(starts, from, to);
+        }
+    }
+
+    /**
+     * Reusable CharSequence view on a part of a text.
+     */
+    private static final class Slice implements CharSequence {
+
+        /**
+         * @param text is the viewed text.
+         */
+        private CharSequence text;
+
+        /**
+         * @param start is the offset of the view.
+         */
+        private int start;
+
+        /**
+         * @param end is the end offset of the view.
+         */
+        private int end;
+
+        /**
+         * Point the view at a part of a text.
+         * @param text is the viewed text.
+         * @param start is the offset of the view.
+         * @param end is the end offset of the view.
+         */
+        private void set(final CharSequence text, final int start, final int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return text.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int from, final int to) {
+            return text.subSequence(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return text.subSequence(start, end).toString();
+        }
+    }
+}
@@ -5,10 +5,20 @@
 
 package nl.bioinf.wvanhelvoirt.genbankreader;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -17,7 +27,22 @@ import java.util.regex.PatternSyntaxException;
  * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
  * @version 1.0.0
  */
-public class GenBankFeatures {
+public class GenBankFeatures implements Serializable {
+
+    /**
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param FASTA_LINE_LENGTH is the number of bases or amino acids per fasta sequence line.
+     */
+    private static final int FASTA_LINE_LENGTH = 80;
+
+    /**
+     * @param FEATURE_BYTES is the approximate number of bytes of a feature object with its coordinates.
+     */
+    private static final int FEATURE_BYTES = 160;
 
     /**
      * @param definition is a string that contains definition of the GenBank file.
@@ -45,9 +70,29 @@ public class GenBankFeatures {
     private final List<Gene> geneElements;
 
     /**
-     * @param origin is a string with the GenBank sequence.
+     * @param origin is a packed sequence with the GenBank sequence.
+     */
+    private final PackedSequence origin;
+
+    /**
+     * @param statistics contains the statistics of the record, computed when it is assembled.
+     */
+    private final GenomeStatistics statistics;
+
+    /**
+     * @param geneIndex is the interval index on the gene coordinates, built on first use.
      */
-    private final String origin;
+    private transient volatile IntervalIndex geneIndex;
+
+    /**
+     * @param geneNameIndex is the name index on the gene names, built on first use.
+     */
+    private transient volatile NameIndex geneNameIndex;
+
+    /**
+     * @param productIndex is the name index on the CDS products, built on first use.
+     */
+    private transient volatile NameIndex productIndex;
 
     /**
     * Constructor for a single CDS.
@@ -65,12 +110,56 @@ public class GenBankFeatures {
             final List<Gene> geneElements,
             final String origin) {
 
+        this(definition, accession, organism, cdsElements, geneElements, PackedSequence.of(origin));
+    }
+
+    /**
+    * Constructor for a GenBank record with an already packed sequence.
+    * @param definition contains definition of GenBank.
+    * @param accession contains accession of GenBank.
+    * @param organism contains organism name.
+    * @param cdsElements contains CodingSequence object.
+    * @param geneElements contains Gene object.
+    * @param origin contains the packed sequence.
+    */
+    public GenBankFeatures(final String definition,
+            final String accession,
+            final String organism,
+            final List<CodingSequence> cdsElements,
+            final List<Gene> geneElements,
+            final PackedSequence origin) {
+
+        this(definition, accession, organism, cdsElements, geneElements, origin,
+                GenomeStatistics.compute(origin, geneElements, cdsElements));
+        FeatureJoin.link(geneElements, cdsElements);
+    }
+
+    /**
+    * Constructor for a GenBank record with already computed statistics and already linked CDS(s), used when reading
+    * snapshots.
+    * @param definition contains definition of GenBank.
+    * @param accession contains accession of GenBank.
+    * @param organism contains organism name.
+    * @param cdsElements contains CodingSequence object.
+    * @param geneElements contains Gene object.
+    * @param origin contains the packed sequence.
+    * @param statistics contains the statistics of the record.
+    */
+    GenBankFeatures(final String definition,
+            final String accession,
+            final String organism,
+            final List<CodingSequence> cdsElements,
+            final List<Gene> geneElements,
+            final PackedSequence origin,
+            final GenomeStatistics statistics) {
+
         this.definition = definition;
         this.accession = accession;
         this.organism = organism;
         this.cdsElements = cdsElements;
         this.geneElements = geneElements;
         this.origin = origin;
+        this.statistics = statistics;
     }
 
     /**
@@ -117,10 +206,64 @@ public class GenBankFeatures {
     * Get sequence of GenBank.
     * @return origin.
     */
-    public String getOrigin() {
+    public PackedSequence getOrigin() {
         return origin;
     }
 
+    /**
+    * Get the statistics of the record.
+    * @return statistics.
+    */
+    public GenomeStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+    * Get the approximate number of bytes used by this record: the packed sequence, the feature objects and the
+    * retained feature lines. Decoded qualifier values and the indexes that are built on first use are not counted.
+    * @return size in bytes.
+    */
+    public long getSizeInBytes() {
+        long size = getOrigin().getSizeInBytes()
+                + (long) FEATURE_BYTES * (getGeneElements().size() + getCdsElements().size());
+
+        /* The feature lines are shared by all features of the record, count each text once. */
+        Set<QualifierSource> sources = Collections.newSetFromMap(new IdentityHashMap<QualifierSource, Boolean>());
+        for (Gene g : getGeneElements()) {
+            if (g.getQualifierSource() != null) {
+                sources.add(g.getQualifierSource());
+            }
+        }
+        for (CodingSequence c : getCdsElements()) {
+            if (c.getQualifierSource() != null) {
+                sources.add(c.getQualifierSource());
+            }
+        }
+        for (QualifierSource source : sources) {
+            size += 2L * source.getText().length();
+        }
+        return size;
+    }
+
+    /**
+    * Write this record to a binary snapshot file that can be loaded with readSnapshot.
+    * @param path is the snapshot file, it is replaced when it exists.
+    * @throws IOException when writing fails.
+    */
+    public void writeSnapshot(final Path path) throws IOException {
+        GenBankSnapshot.write(this, path);
+    }
+
+    /**
+    * Load a record from a binary snapshot file, this is much faster than parsing the GenBank file again.
+    * @param path is the snapshot file written by writeSnapshot.
+    * @return GenBankFeatures object of the record.
+    * @throws IOException when the file can not be read or has an unsupported version.
+    */
+    public static GenBankFeatures readSnapshot(final Path path) throws IOException {
+        return GenBankSnapshot.read(path);
+    }
+
     @Override
     public String toString() {
         return "Definition: " + getDefinition() + ", Acceccion: " + getAccession() + ", Organism: " + getOrganism()
@@ -134,26 +277,85 @@ public class GenBankFeatures {
     * @return string containing summary information.
     */
     public ArrayList getSummary(final String fileName) {
+        ResultList summaryList = new ResultList();
+        try {
+            writeSummary(fileName, summaryList);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return summaryList.getLines();
+    }
 
-        ArrayList<String> summaryList = new ArrayList<String>();
+    /**
+    * Write a summary of GanBank file.
+    * @param fileName is a string of GenBank file name.
+    * @param out receives the summary lines, each line ends with a newline.
+    * @throws IOException when writing to out fails.
+    */
+    public void writeSummary(final String fileName, final Appendable out) throws IOException {
+
+        /* Get the number of forward oriented gene(s) from the statistics. */
+        int countForward = getStatistics().getGeneCount(SequenceOrientation.FORWARD);
+
+        writeLine(out, "file: " + fileName);
+        writeLine(out, "organism: " + getOrganism());
+        writeLine(out, "accession: " + getAccession());
+        writeLine(out, "sequence length: " + getOrigin().length() + " bp");
+        writeLine(out, "number of genes: " + getGeneElements().size());
+        writeLine(out, "gene F/R balance: " + (float) countForward / getGeneElements().size());
+        writeLine(out, "number of CDS's: " + getCdsElements().size());
+    }
 
-        /* Create counter and count total forward oriented gene(s). */
-        int countForward = 0;
-        for (Gene i : getGeneElements()) {
-            if (i.getDirection() == SequenceOrientation.FORWARD) {
-                countForward++;
-            }
+    /**
+    * Get a summary of GenBank file extended with the sequence and feature statistics.
+    * @param fileName is a string of GenBank file name.
+    * @return string containing summary information and statistics.
+    */
+    public ArrayList getExtendedSummary(final String fileName) {
+        ResultList summaryList = new ResultList();
+        try {
+            writeExtendedSummary(fileName, summaryList);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return summaryList.getLines();
+    }
 
-        summaryList.add("file: " + fileName);
-        summaryList.add("organism: " + getOrganism());
-        summaryList.add("accession: " + getAccession());
-        summaryList.add("sequence length: " + getOrigin().length() + " bp");
-        summaryList.add("number of genes: " + getGeneElements().size());
-        summaryList.add("gene F/R balance: " + (float) countForward / getGeneElements().size());
-        summaryList.add("number of CDS's: " + getCdsElements().size());
-        /* Return List summary. */
-        return summaryList;
+    /**
+    * Write a summary of GenBank file extended with the sequence and feature statistics and the codon usage.
+    * @param fileName is a string of GenBank file name.
+    * @param out receives the summary lines, each line ends with a newline.
+    * @throws IOException when writing to out fails.
+    */
+    public void writeExtendedSummary(final String fileName, final Appendable out) throws IOException {
+        writeSummary(fileName, out);
+
+        GenomeStatistics stats = getStatistics();
+        writeLine(out, "GC content: " + String.format(Locale.US, "%.2f", 100 * stats.getGcContent()) + " %");
+        writeLine(out, "base composition: A " + stats.getBaseCount('A') + ", C " + stats.getBaseCount('C') + ", G "
+                + stats.getBaseCount('G') + ", T " + stats.getBaseCount('T'));
+        writeLine(out, "N count: " + stats.getBaseCount('N') + ", other IUPAC count: " + stats.getOtherCount());
+        writeLine(out, "genes forward/reverse: " + stats.getGeneCount(SequenceOrientation.FORWARD) + "/"
+                + stats.getGeneCount(SequenceOrientation.REVERSE));
+        writeLine(out, "CDS's forward/reverse: " + stats.getCdsCount(SequenceOrientation.FORWARD) + "/"
+                + stats.getCdsCount(SequenceOrientation.REVERSE));
+        if (stats.getGeneCount(SequenceOrientation.MIXED) + stats.getCdsCount(SequenceOrientation.MIXED) > 0) {
+            writeLine(out, "mixed strand genes/CDS's: " + stats.getGeneCount(SequenceOrientation.MIXED) + "/"
+                    + stats.getCdsCount(SequenceOrientation.MIXED));
+        }
+        writeLine(out, "mean gene length: " + String.format(Locale.US, "%.1f", stats.getMeanGeneLength()) + " bp");
+        writeLine(out, "coding density: " + String.format(Locale.US, "%.2f", 100 * stats.getCodingDensity()) + " %");
+
+        /* Codon usage table, per thousand of all complete codons in the CDS regions. */
+        long total = stats.getCodonTotal();
+        writeLine(out, "codon usage over " + total + " codons:");
+        writeLine(out, "CODON;AMINO ACID;COUNT;PER THOUSAND");
+        for (int index = 0; index < 64; index++) {
+            String codon = GenomeStatistics.getCodon(index);
+            long count = stats.getCodonCount(codon);
+            writeLine(out, codon + ";" + GenomeStatistics.getAminoAcid(codon) + ";" + count + ";"
+                    + String.format(Locale.US, "%.2f", total == 0 ? 0.0 : 1000.0 * count / total));
+        }
     }
 
     /**
@@ -162,41 +364,101 @@ public class GenBankFeatures {
     * @return string containing all found genes in fasta format.
     */
     public ArrayList fetchGene(final String gene) {
+        ResultList geneList = new ResultList();
+        try {
+            writeGenes(gene, geneList);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return geneList.getLines();
+    }
 
-        /* Initialize arraylist for all found genes. */
-        ArrayList<String> geneList = new ArrayList<String>();
+    /**
+    * Write all sequences from genes that match gene regex pattern, without collecting them first.
+    * @param gene is a regex string of gene name.
+    * @param out receives the found genes in fasta format, each line ends with a newline.
+    * @throws IOException when writing to out fails.
+    */
+    public void writeGenes(final String gene, final Appendable out) throws IOException {
+        boolean written = false;
         Pattern patternGene = Pattern.compile(".");
 
         try {
             patternGene = Pattern.compile(gene);
         } catch (PatternSyntaxException e) {
-            geneList.add("Gene pattern '" + gene + "' is not valid pattern, '.' was used instead.");
-        } finally {
-            /* Iterate gene elements, create pattern and append first line to sb. */
-            for (Gene i : getGeneElements()) {
-
-                Matcher matchGene = patternGene.matcher(i.getGene());
-                if (matchGene.find()) {
-                    geneList.add(">gene ".concat(i.getGene() + " sequence"));
-
-                    /* Get sequence of matched gene, add newlines and append to sb. */
-                    int lineLength = 80;
-                    StringBuilder geneSequence = new StringBuilder(
-                            getOrigin().subSequence((int) i.getCoordinates().getFirst() - 1,
-                            (int) i.getCoordinates().getLast()));
-
-                    geneList.add(geneSequence.toString());
-                }
+            writeLine(out, "Gene pattern '" + gene + "' is not valid pattern, '.' was used instead.");
+            written = true;
+        }
+
+        /* Iterate the gene elements the name index could not rule out, write the header line and sequence. */
+        int[] candidates = getGeneNameIndex().candidates(patternGene.pattern());
+        int count = candidates == null ? getGeneElements().size() : candidates.length;
+        for (int k = 0; k < count; k++) {
+            Gene i = getGeneElements().get(candidates == null ? k : candidates[k]);
+
+            Matcher matchGene = patternGene.matcher(i.getGene());
+            if (matchGene.find()) {
+                writeLine(out, ">gene ".concat(i.getGene() + " sequence"));
+
+                /* Write sequence of matched gene on its own strand, segments of spliced genes are joined. */
+                writeSequence(out, i.getCoordinates(), i.getDirection());
+                written = true;
             }
         }
 
-        /* When no matches, return 'nothing found' message. */
-        if (geneList.isEmpty()) {
-            geneList.add("Gene pattern '" + gene + "' was not found in the given GenBank.");
-            return geneList;
-        } else {
-            return geneList;
+        /* When no matches, write 'nothing found' message. */
+        if (!written) {
+            writeLine(out, "Gene pattern '" + gene + "' was not found in the given GenBank.");
+        }
+    }
+
+    /**
+    * Write the sequence of a location in fasta lines, as views on the origin so no bases are copied. Segments are
+    * written in biological order, segments on the reverse strand as their reverse complement.
+    * @param out receives the sequence lines.
+    * @param location contains the segments.
+    * @param direction is the strand of a location with a single segment.
+    * @throws IOException when writing to out fails.
+    */
+    private void writeSequence(final Appendable out, final Coordinates location, final SequenceOrientation direction)
+            throws IOException {
+        int count = location.getSegmentCount();
+        int column = 0;
+        for (int s = 0; s < count; s++) {
+            int start = (int) Math.max(location.getSegmentStart(s) - 1, 0);
+            int end = (int) Math.min(location.getSegmentEnd(s), getOrigin().length());
+            boolean reverse = count > 1 ? location.isSegmentReverse(s) : direction == SequenceOrientation.REVERSE;
+            if (start < end) {
+                SequenceView segment = getOrigin().view(start, end);
+                column = appendWrapped(out, reverse ? segment.reverseComplement() : segment, column);
+            }
         }
+        out.append('\n');
+    }
+
+    /**
+    * Append a sequence in lines of FASTA_LINE_LENGTH characters, continuing a line that was started before. Only the
+    * last line is not ended.
+    * @param out receives the sequence.
+    * @param sequence is the sequence to append.
+    * @param column is the number of characters on the current line.
+    * @return the number of characters on the last line.
+    * @throws IOException when writing to out fails.
+    */
+    private static int appendWrapped(final Appendable out, final CharSequence sequence, final int column)
+            throws IOException {
+        int lineColumn = column;
+        for (int i = 0; i < sequence.length();) {
+            if (lineColumn == FASTA_LINE_LENGTH) {
+                out.append('\n');
+                lineColumn = 0;
+            }
+            int n = Math.min(FASTA_LINE_LENGTH - lineColumn, sequence.length() - i);
+            out.append(sequence, i, i + n);
+            lineColumn += n;
+            i += n;
+        }
+        return lineColumn;
     }
 
     /**
@@ -205,39 +467,57 @@ public class GenBankFeatures {
     * @return string containing all found CDSs in fasta format.
     */
     public ArrayList fetchCds(final String cds) {
+        ResultList cdsList = new ResultList();
+        try {
+            writeCds(cds, cdsList);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return cdsList.getLines();
+    }
 
-        /* Initialize arraylist for all found CDSs. */
-        ArrayList<String> cdsList = new ArrayList<String>();
+    /**
+    * Write all translation sequences from CDSs that match cds regex pattern, without collecting them first.
+    * @param cds is a regex string of CDS name.
+    * @param out receives the found CDSs in fasta format, each line ends with a newline.
+    * @throws IOException when writing to out fails.
+    */
+    public void writeCds(final String cds, final Appendable out) throws IOException {
+        boolean written = false;
         Pattern patternCDS = Pattern.compile(".");
 
         try {
             patternCDS = Pattern.compile(cds);
         } catch (PatternSyntaxException e) {
-            cdsList.add("CDS pattern '" + cds + "' is not valid pattern, '.' was used instead.");
-        } finally {
-            /* Iterate CDS elements, create pattern and append first line to sb. */
-            for (CodingSequence i : getCdsElements()) {
-
-                Matcher matchCDS = patternCDS.matcher(i.getProduct());
-                if (matchCDS.find()) {
-                    cdsList.add(""
-                            + ">CDS ".concat(i.getProduct() + " sequence"));
+            writeLine(out, "CDS pattern '" + cds + "' is not valid pattern, '.' was used instead.");
+            written = true;
+        }
 
-                    /* Get translated sequence of matched CDS, add newlines and append to sb. */
-                    int lineLength = 80;
-                    StringBuilder cdsSequence = new StringBuilder(i.getTranslation());
+        /* Iterate the CDS candidates of the name index, the pattern is matched once per distinct product id. */
+        int[] candidates = getProductIndex().candidates(patternCDS.pattern());
+        int count = candidates == null ? getCdsElements().size() : candidates.length;
+        Map<Integer, Boolean> productMatches = new HashMap<>();
+        for (int k = 0; k < count; k++) {
+            CodingSequence i = getCdsElements().get(candidates == null ? k : candidates[k]);
+
+            Boolean matched = productMatches.get(i.getProductId());
+            if (matched == null) {
+                matched = patternCDS.matcher(i.getProduct()).find();
+                productMatches.put(i.getProductId(), matched);
+            }
+            if (matched) {
+                writeLine(out, ">CDS ".concat(i.getProduct() + " sequence"));
 
-                    cdsList.add(cdsSequence.toString());
-                }
+                /* Write translated sequence of matched CDS. */
+                appendWrapped(out, i.getTranslation(), 0);
+                out.append('\n');
+                written = true;
             }
         }
 
-        /* When no matches, return 'nothing found' message. */
-        if (cdsList.isEmpty()) {
-            cdsList.add("CDS pattern '" + cds + "' was not found in the given GenBank.");
-            return cdsList;
-        } else {
-            return cdsList;
+        /* When no matches, write 'nothing found' message. */
+        if (!written) {
+            writeLine(out, "CDS pattern '" + cds + "' was not found in the given GenBank.");
         }
     }
 
@@ -248,51 +528,132 @@ public class GenBankFeatures {
     * @throws NumberFormatException when maxCoordinates does not have correct format.
     */
     public ArrayList fetchFeatures(final String maxCoordinates) {
+        return fetchFeatures(maxCoordinates, RangeMode.CONTAINED);
+    }
 
-        ArrayList<String> featuresList = new ArrayList<String>();
+    /**
+    * Get features that lay between or overlap min and max coordinates.
+    * @param maxCoordinates is a string with min and max coordinates.
+    * @param mode selects features strictly between the coordinates or features that overlap them.
+    * @return string with al found features.
+    */
+    public ArrayList fetchFeatures(final String maxCoordinates, final RangeMode mode) {
+        ResultList featuresList = new ResultList();
+        try {
+            writeFeatures(maxCoordinates, mode, featuresList);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return featuresList.getLines();
+    }
+
+    /**
+    * Write features that lay between or overlap min and max coordinates, without collecting them first.
+    * @param maxCoordinates is a string with min and max coordinates.
+    * @param mode selects features strictly between the coordinates or features that overlap them.
+    * @param out receives the found features, each line ends with a newline.
+    * @throws IOException when writing to out fails.
+    */
+    public void writeFeatures(final String maxCoordinates, final RangeMode mode, final Appendable out)
+            throws IOException {
+        Coordinates cs;
 
         try {
-            /* Split coordinates and create Coordinates object. */
-            String[] coordinates = maxCoordinates.replaceAll("\\s", "").split("\\,");
-            Coordinates cs = new Coordinates(Long.parseLong(coordinates[0]),
-                    Long.parseLong(coordinates[coordinates.length - 1]));
+            cs = parseCoordinates(maxCoordinates);
 
-            /* For each gene element add gene features to sb if coordinates are whithin given coordinates. */
-            for (Gene g : getGeneElements()) {
-                if (g.getCoordinates().getFirst() > cs.getFirst()
-                        && g.getCoordinates().getLast() < cs.getLast()) {
+        /* If maxCoordinates does not have right format, write error string. */
+        } catch (NumberFormatException e) {
+            writeLine(out, "A problem occured: '" + maxCoordinates + "' should be two numbers seperated by a comma."
+                    + "The second number should have a max length of 9223372036854775807."
+                    + "Only the first (before first comma) and last (after last comma) numbers will be used.");
+            return;
+        }
 
-                    featuresList.add(g.getGene() + ";gene;" + g.getCoordinates().getFirst() + ";"
-                            + g.getCoordinates().getLast() + ";" + g.getDirection().getType());
+        /* Look up the genes in the range with the gene index, in gene list order. */
+        boolean written = false;
+        for (int geneId : getGeneIndex().query(cs.getFirst(), cs.getLast(), mode)) {
+            Gene g = getGeneElements().get(geneId);
+            if (!written) {
+                writeLine(out, "FEATURE;TYPE;START;STOP;ORIENTATION");
+                written = true;
+            }
+            writeLine(out, g.getGene() + ";gene;" + g.getCoordinates().getFirst() + ";" + g.getCoordinates().getLast()
+                    + ";" + g.getDirection().getType());
 
-                    /* If gene has been added, check for coresponding CDS element and add it to sb. */
-                    for (CodingSequence c : getCdsElements()) {
-                        if (g.getCoordinates().getFirst() == c.getCoordinates().getFirst()
-                                && g.getCoordinates().getLast() == c.getCoordinates().getLast()) {
+            /* Write the CDS elements of the gene. */
+            for (CodingSequence c : g.getCodingSequences()) {
+                writeLine(out, c.getProduct() + ";CDS;" + c.getCoordinates().getFirst() + ";"
+                        + c.getCoordinates().getLast() + ";" + c.getDirection().getType());
+            }
+        }
 
-                            featuresList.add(c.getProduct() + ";CDS;" + c.getCoordinates().getFirst() + ";"
-                                    + c.getCoordinates().getLast() + ";" + g.getDirection().getType());
-                        }
-                    }
-                }
+        /* When no matches, write 'nothing found' message. */
+        if (!written) {
+            writeLine(out, "No gene(s) or CDS(s) was/were found between '" + cs.getFirst() + "," + cs.getLast()
+                    + "' in the given GenBank.");
+        }
+    }
+
+    /**
+    * Parse min and max coordinates, only the numbers before the first and after the last comma are used.
+    * @param maxCoordinates is a string with min and max coordinates.
+    * @return the coordinates.
+    * @throws NumberFormatException when maxCoordinates does not have correct format.
+    */
+    public static Coordinates parseCoordinates(final String maxCoordinates) {
+        String[] coordinates = maxCoordinates.replaceAll("\\s", "").split("\\,");
+        return new Coordinates(Long.parseLong(coordinates[0]), Long.parseLong(coordinates[coordinates.length - 1]));
+    }
+
+    /**
+    * Get the interval index on the gene coordinates, it is built on first use.
+    * @return geneIndex.
+    */
+    private IntervalIndex getGeneIndex() {
+        IntervalIndex index = geneIndex;
+        if (index == null) {
+            List<Coordinates> coordinates = new ArrayList<>(getGeneElements().size());
+            for (Gene g : getGeneElements()) {
+                coordinates.add(g.getCoordinates());
             }
+            index = new IntervalIndex(coordinates);
+            geneIndex = index;
+        }
+        return index;
+    }
 
-            /* When no matches, return 'nothing found' message. */
-            if (featuresList.isEmpty()) {
-                featuresList.add("No gene(s) or CDS(s) was/were found between '" + maxCoordinates + "' in the given GenBank.");
-                return featuresList;
-            } else {
-                featuresList.add(0, "FEATURE;TYPE;START;STOP;ORIENTATION");
-                return featuresList;
+    /**
+    * Get the name index on the gene names, it is built on first use.
+    * @return geneNameIndex.
+    */
+    private NameIndex getGeneNameIndex() {
+        NameIndex index = geneNameIndex;
+        if (index == null) {
+            List<String> names = new ArrayList<>(getGeneElements().size());
+            for (Gene g : getGeneElements()) {
+                names.add(g.getGene());
             }
+            index = new NameIndex(names);
+            geneNameIndex = index;
+        }
+        return index;
+    }
 
-        /* If maxCoordinates does not have right format, return error string. */
-        } catch (NumberFormatException e) {
-            featuresList.add("A problem occured: '" + maxCoordinates + "' should be two numbers seperated by a comma."
-                    + "The second number should have a max length of 9223372036854775807."
-                    + "Only the first (before first comma) and last (after last comma) numbers will be used.");
-            return featuresList;
+    /**
+    * Get the name index on the CDS products, it is built on first use.
+    * @return productIndex.
+    */
+    private NameIndex getProductIndex() {
+        NameIndex index = productIndex;
+        if (index == null) {
+            List<String> names = new ArrayList<>(getCdsElements().size());
+            for (CodingSequence c : getCdsElements()) {
+                names.add(c.getProduct());
+            }
+            index = new NameIndex(names);
+            productIndex = index;
         }
+        return index;
     }
 
     /**
@@ -301,73 +662,210 @@ public class GenBankFeatures {
     * @return string with al found sites and corresponding genes.
     */
     public ArrayList findSites(final String pattern) {
+        ResultList sitesList = new ResultList();
+        try {
+            writeSites(pattern, sitesList);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sitesList.getLines();
+    }
 
-        ArrayList<String> sitesList = new ArrayList<String>();
-        
-        /* Initialize HashMap and add iupac codes to them. */
-        Map<String, String> iupacCodes = new HashMap<>();
-        iupacCodes.put("R", "[AG]");
-        iupacCodes.put("Y", "[CT]");
-        iupacCodes.put("S", "[GC]");
-        iupacCodes.put("W", "[AT]");
-        iupacCodes.put("K", "[GT]");
-        iupacCodes.put("M", "[AC]");
-        iupacCodes.put("B", "[CGT]");
-        iupacCodes.put("D", "[AGT]");
-        iupacCodes.put("H", "[ACT]");
-        iupacCodes.put("V", "[ACG]");
-        iupacCodes.put("N", "[ACGT]");
+    /**
+    * Write start position sites were pattern matched, without collecting them first. The sequence is scanned chunk by
+    * chunk and the sites of a chunk are written before the next chunk is used.
+    * @param pattern is a iupac sequence string.
+    * @param out receives the found sites and corresponding genes, each line ends with a newline.
+    * @throws IOException when writing to out fails.
+    */
+    public void writeSites(final String pattern, final Appendable out) throws IOException {
 
         /* Remove regex related charecters from pattern. */
-        String filteredPattern = pattern.replaceAll("[^\\w]*[0-9]*", "").toUpperCase();
-        String regexPattern = "";
+        String filteredPattern = filterSitePattern(pattern);
 
         if (filteredPattern.equals("")) {
-            sitesList.add("The site pattern '" + pattern + "' is not a valid pattern."
+            writeLine(out, "The site pattern '" + pattern + "' is not a valid pattern."
                     + "Pattern should only contain IUPAC codes.");
-            return sitesList;
         } else {
-            /* Build own regex pattern by using the previously initialized HashMap */
-            for (int i = 0; i < filteredPattern.length(); i++) {
-                if (iupacCodes.containsKey(filteredPattern.substring(i, i + 1))) {
-                    regexPattern += iupacCodes.get(filteredPattern.substring(i, i + 1));
-                } else {
-                    regexPattern += filteredPattern.substring(i, i + 1);
+
+            /* Match the pattern on both strands of the origin sequence in one pass, in parallel for long sequences.
+               The sites come chunk by chunk in ascending order, each chunk is written before the next is used, so
+               the first sites are written before the whole sequence has been scanned. */
+            IupacMatcher matcher = new IupacMatcher(filteredPattern);
+            IupacMatcher.Chunks chunks = matcher.scanChunks(getOrigin(), ForkJoinPool.commonPool());
+            boolean written = false;
+            try {
+
+                /* Hits are in ascending order, so the genes around them are found in one sweep. */
+                IntervalIndex.Sweep genes = getGeneIndex().sweep();
+                for (IupacMatcher.Hits hits = chunks.next(); hits != null; hits = chunks.next()) {
+                    if (!written && hits.size() > 0) {
+                        writeLine(out, "site search: " + filteredPattern + " (overlapping sites on both strands, "
+                                + "reverse complement: " + IupacMatcher.reverseComplement(filteredPattern) + ")");
+                        writeLine(out, "POSITION;SEQUENCE;GENE;STRAND");
+                        written = true;
+                    }
+                    for (int h = 0; h < hits.size(); h++) {
+                        int startPosition = hits.getPosition(h);
+                        String site = getSite(startPosition, matcher.length(), hits.isReverse(h));
+                        String strand = getStrand(matcher.isPalindrome(), hits.isReverse(h));
+
+                        /* For each gene that contains the match position write the match. */
+                        int geneCount = genes.advance(startPosition);
+                        for (int g = 0; g < geneCount; g++) {
+                            Gene i = getGeneElements().get(genes.getId(g));
+                            writeLine(out, (startPosition + 1) + ";" + site + ";" + i.getGene() + ";" + strand);
+                        }
+
+                        /* When match not within gene position, write match as intergenic. */
+                        if (geneCount == 0) {
+                            writeLine(out, (startPosition + 1) + ";" + site + ";INTERGENIC;" + strand);
+                        }
+                    }
                 }
+            } finally {
+
+                /* Stop the chunks that are scanned ahead when writing stops early. */
+                chunks.cancel();
             }
 
-            /* Compile regex pattern and match pattern to origin sequence. */
-            Matcher matchSequence = Pattern.compile(regexPattern).matcher(getOrigin());
+            /* When no matches, write 'nothing found' message. */
+            if (!written) {
+                writeLine(out, "The pattern '" + filteredPattern + "' did not result in matches within the given GenBank.");
+            }
+        }
+    }
 
-            while (matchSequence.find()) {
-                boolean match = false;
-                int startPosition = matchSequence.start();
+    /**
+    * Remove the characters that are not used from a site pattern.
+    * @param pattern is a iupac sequence string.
+    * @return the upper case pattern without digits and regex related characters, empty when nothing is left.
+    */
+    public static String filterSitePattern(final String pattern) {
+        return pattern.replaceAll("[^\\w]*[0-9]*", "").toUpperCase();
+    }
 
-                /* For each gene element check if match within gene and append. */
-                for (Gene i : getGeneElements()) {
-                    if (i.getCoordinates().getFirst() < startPosition
-                            && i.getCoordinates().getLast() > startPosition) {
+    /**
+    * Find the sites of several motifs, for example a panel of restriction enzymes, in one pass over the sequence.
+    * @param motifs is a comma separated list of enzyme names, 'panel' for all enzymes, name=site items or sites.
+    * @return string with all found sites grouped by motif, followed by the fragment sizes of each motif.
+    */
+    public ArrayList digestSites(final String motifs) {
+        ResultList digestList = new ResultList();
+        try {
+            writeDigest(motifs, digestList);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return digestList.getLines();
+    }
 
-                        match = true;
-                        sitesList.add((startPosition + 1) + ";" + matchSequence.group() + ";" + i.getGene());
-                    }
-                }
+    /**
+    * Get the motifs of a motif list in one form, so lists that give the same motifs in other words are recognized.
+    * @param motifs is a comma separated list of enzyme names, 'panel' for all enzymes, name=site items or sites.
+    * @return name=site items separated by commas, with ^ at the cut of each site.
+    * @throws IllegalArgumentException when an item is not an enzyme name or valid motif.
+    */
+    public static String normalizeMotifs(final String motifs) {
+        return new MotifDigest(motifs).toString();
+    }
 
-                /* When match not within gene position, append match as intergenic. */
-                if (!match) {
-                    sitesList.add((startPosition + 1) + ";" + matchSequence.group() + ";INTERGENIC");
-                }
+    /**
+    * Write the sites of several motifs, found in one pass over the sequence, without collecting them first.
+    * @param motifs is a comma separated list of enzyme names, 'panel' for all enzymes, name=site items or sites.
+    * @param out receives the sites grouped by motif and the fragment sizes of each motif, one line each.
+    * @throws IOException when writing to out fails.
+    */
+    public void writeDigest(final String motifs, final Appendable out) throws IOException {
+        MotifDigest digest;
+
+        try {
+            digest = new MotifDigest(motifs);
+        } catch (IllegalArgumentException e) {
+            writeLine(out, "The motif list '" + motifs + "' is not valid: " + e.getMessage()
+                    + " Give enzyme names (" + String.join(", ", MotifDigest.getPanelNames()) + "), '"
+                    + MotifDigest.PANEL_KEYWORD + "' or name=IUPAC site items separated by commas.");
+            return;
+        }
+
+        /* Scan the origin once for all motifs, then list the sites and fragments per motif. */
+        IupacMatcher.Hits[] hits = digest.scan(getOrigin());
+        StringBuilder header = new StringBuilder("digest:");
+        for (int motif = 0; motif < digest.size(); motif++) {
+            header.append(motif == 0 ? " " : ", ").append(digest.getName(motif)).append(" (")
+                    .append(digest.getSite(motif)).append(')');
+        }
+        writeLine(out, header.toString());
+        writeLine(out, "MOTIF;POSITION;SEQUENCE;STRAND");
+
+        for (int motif = 0; motif < digest.size(); motif++) {
+            String name = digest.getName(motif);
+            int length = digest.getSite(motif).length();
+            int[] cuts = new int[hits[motif].size()];
+            for (int h = 0; h < hits[motif].size(); h++) {
+                int startPosition = hits[motif].getPosition(h);
+                boolean reverse = hits[motif].isReverse(h);
+                writeLine(out, name + ";" + (startPosition + 1) + ";" + getSite(startPosition, length, reverse) + ";"
+                        + getStrand(digest.isPalindrome(motif), reverse));
+                cuts[h] = digest.getCutPosition(motif, startPosition, reverse);
+            }
+            if (cuts.length == 0) {
+                writeLine(out, name + ";no sites");
             }
+            writeLine(out, name + " fragments (bp): " + getFragmentSizes(cuts));
+        }
+    }
+
+    /**
+    * Write one line of a query result.
+    * @param out receives the line.
+    * @param line is the line without newline.
+    * @throws IOException when writing to out fails.
+    */
+    private static void writeLine(final Appendable out, final String line) throws IOException {
+        out.append(line).append('\n');
+    }
 
-            /* When no matches, return 'nothing found' message. */
-            if (sitesList.isEmpty()) {
-                sitesList.add("The pattern '" + filteredPattern + "' did not result in matches within the given GenBank.");
-                return sitesList;
-            } else {
-                sitesList.add(0, "site search: " + filteredPattern + " (regex: " + regexPattern + ")");
-                sitesList.add(1, "POSITION;SEQUENCE;GENE");
-                return sitesList;
+    /**
+    * Get the fragment sizes of a linear sequence that is cut at the given positions.
+    * @param cuts contains the 0 based position after each cut, in any order.
+    * @return comma separated fragment sizes from the start of the sequence.
+    */
+    private String getFragmentSizes(final int[] cuts) {
+        Arrays.sort(cuts);
+        StringBuilder sizes = new StringBuilder();
+        int previous = 0;
+        for (int cut : cuts) {
+            if (cut > previous && cut < getOrigin().length()) {
+                sizes.append(cut - previous).append(", ");
+                previous = cut;
             }
         }
+        return sizes.append(getOrigin().length() - previous).toString();
+    }
+
+    /**
+    * Get the sequence of a site as read on its strand.
+    * @param startPosition is the 0 based start of the site on the forward strand.
+    * @param length is the site length.
+    * @param reverse is true for a site on the reverse strand.
+    * @return site sequence.
+    */
+    private String getSite(final int startPosition, final int length, final boolean reverse) {
+        SequenceView site = getOrigin().view(startPosition, startPosition + length);
+        return (reverse ? site.reverseComplement() : site).toString();
+    }
+
+    /**
+    * Get the strand column of a site, sites of a palindromic pattern are on both strands.
+    * @param palindrome is true when the pattern is its own reverse complement.
+    * @param reverse is true for a site on the reverse strand.
+    * @return Forward, Reverse or Both.
+    */
+    private static String getStrand(final boolean palindrome, final boolean reverse) {
+        if (palindrome) {
+            return "Both";
+        }
+        return reverse ? SequenceOrientation.REVERSE.getType() : SequenceOrientation.FORWARD.getType();
     }
 }
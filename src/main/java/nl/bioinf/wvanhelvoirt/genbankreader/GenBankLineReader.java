@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+
+/**
+ * Line reader that reuses one character buffer and one line buffer for the whole input.
+ * Lines are exposed as a CharSequence that is only valid until the next call to readLine.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class GenBankLineReader implements Closeable {
+
+    /**
+     * @param BUFFER_SIZE is the number of characters read from the underlying reader at once.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * @param reader is the reader that delivers the GenBank text.
+     */
+    private final Reader reader;
+
+    /**
+     * @param buffer is the fixed read buffer.
+     */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /**
+     * @param line is the reusable buffer holding the current line without line terminator.
+     */
+    private final StringBuilder line = new StringBuilder(128);
+
+    /**
+     * @param position is the next unread index in buffer.
+     */
+    private int position;
+
+    /**
+     * @param limit is the number of valid characters in buffer.
+     */
+    private int limit;
+
+    /**
+     * Constructor for the line reader.
+     * @param reader contains the GenBank text.
+     */
+    GenBankLineReader(final Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next line into the line buffer.
+     * @return false when the end of the input has been reached.
+     * @throws IOException when the underlying reader fails.
+     * @throws InterruptedIOException when the thread is interrupted, which is checked each time the buffer is read.
+     */
+    boolean readLine() throws IOException {
+        line.setLength(0);
+        boolean readAny = false;
+
+        while (true) {
+            if (position >= limit) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Reading the GenBank file has been cancelled.");
+                }
+                limit = reader.read(buffer, 0, BUFFER_SIZE);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return readAny;
+                }
+            }
+            readAny = true;
+
+            /* Copy characters up to the line terminator, strip a trailing carriage return. */
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+            line.append(buffer, start, position - start);
+            if (position < limit) {
+                position++;
+                if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                    line.setLength(line.length() - 1);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+    * Get the current line.
+    * @return line.
+    */
+    CharSequence getLine() {
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
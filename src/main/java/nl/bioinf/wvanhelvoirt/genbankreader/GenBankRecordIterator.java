@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator that parses the records of a multi-record GenBank file one at a time.
+ * Only the record that is returned last is held in memory, close the iterator when stopping early.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+public class GenBankRecordIterator implements Iterator<GenBankFeatures>, Closeable {
+
+    /**
+     * @param reader is the line reader over the GenBank file.
+     */
+    private final GenBankLineReader reader;
+
+    /**
+     * @param parser is the parser reused for every record.
+     */
+    private final GenBankRecordParser parser;
+
+    /**
+     * @param next is the record parsed ahead by hasNext, null when not yet parsed.
+     */
+    private GenBankFeatures next;
+
+    /**
+     * @param finished is true when all records have been read or the iterator has been closed.
+     */
+    private boolean finished;
+
+    /**
+    * Constructor for the record iterator.
+    * @param reader contains the GenBank lines.
+    * @param parser is the parser used for every record.
+    */
+    GenBankRecordIterator(final GenBankLineReader reader, final GenBankRecordParser parser) {
+        this.reader = reader;
+        this.parser = parser;
+    }
+
+    /**
+    * Check if there is another record, parses it when needed.
+    * @return true when another record is available.
+    * @throws UncheckedIOException when reading the file fails.
+    */
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            try {
+                next = parser.parse(reader);
+                if (next == null) {
+                    close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    /**
+    * Get the next record.
+    * @return GenBankFeatures object of the next record.
+    * @throws NoSuchElementException when there are no records left.
+    */
+    @Override
+    public GenBankFeatures next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No GenBank records left.");
+        }
+        GenBankFeatures current = next;
+        next = null;
+        return current;
+    }
+
+    /**
+    * Close the underlying file, no further records are returned.
+    * @throws IOException when closing fails.
+    */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            finished = true;
+            reader.close();
+        }
+    }
+}
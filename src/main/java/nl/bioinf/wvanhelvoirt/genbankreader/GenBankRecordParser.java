@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Single-pass parser for one GenBank record. Sections are recognised from the column layout of each line, so the
+ * input is read exactly once. The lines of the gene, CDS and source features are collected and handed to
+ * GenBankFeatureParser when the record ends, all other features are skipped while reading.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class GenBankRecordParser {
+
+    /**
+     * Sections of a GenBank record, selected by the keyword in the first column.
+     */
+    private enum Section {
+
+        /**
+         * Header lines that are not used (LOCUS, VERSION, REFERENCE, ...).
+         */
+        OTHER,
+
+        /**
+         * The DEFINITION line and its continuation lines.
+         */
+        DEFINITION,
+
+        /**
+         * The ACCESSION line and its continuation lines.
+         */
+        ACCESSION,
+
+        /**
+         * The feature table.
+         */
+        FEATURES,
+
+        /**
+         * The sequence lines following ORIGIN.
+         */
+        ORIGIN
+    }
+
+    /**
+     * @param featurePool is the pool used to parse large feature tables, null to parse serially.
+     */
+    private final ForkJoinPool featurePool;
+
+    /**
+     * @param section is the section of the line that is currently parsed.
+     */
+    private Section section;
+
+    /**
+     * @param definition is the buffer for the definition.
+     */
+    private final StringBuilder definition = new StringBuilder();
+
+    /**
+     * @param accession is the buffer for the accession.
+     */
+    private final StringBuilder accession = new StringBuilder();
+
+    /**
+     * @param features contains the lines of the collected features.
+     */
+    private StringBuilder features;
+
+    /**
+     * @param featureStarts contains the offset of each collected feature in features.
+     */
+    private int[] featureStarts = new int[64];
+
+    /**
+     * @param featureCount is the number of collected features.
+     */
+    private int featureCount;
+
+    /**
+     * @param collecting is true while the lines of the current feature are collected.
+     */
+    private boolean collecting;
+
+    /**
+     * @param origin is the builder that packs the sequence.
+     */
+    private PackedSequence.Builder origin;
+
+    /**
+     * Constructor for a record parser.
+     * @param featurePool is the pool used to parse large feature tables, null to parse serially.
+     */
+    GenBankRecordParser(final ForkJoinPool featurePool) {
+        this.featurePool = featurePool;
+    }
+
+    /**
+     * Parse the next record from the line reader.
+     * @param reader contains the GenBank lines.
+     * @return GenBankFeatures object of the record or null when there is no record left.
+     * @throws IOException when reading fails.
+     */
+    GenBankFeatures parse(final GenBankLineReader reader) throws IOException {
+        reset();
+        boolean started = false;
+
+        while (reader.readLine()) {
+            CharSequence line = reader.getLine();
+            if (line.length() == 0) {
+                continue;
+            }
+
+            /* Lines with a keyword in the first column open a new section. From 100 Mb on, the position of a
+               sequence line fills the first column too. */
+            if (line.charAt(0) != ' ' && !(section == Section.ORIGIN && Character.isDigit(line.charAt(0)))) {
+                started = true;
+                if (GenBankText.startsWith(line, "//")) {
+                    break;
+                }
+                if (GenBankText.startsWith(line, "LOCUS")) {
+                    section = Section.OTHER;
+                    origin = new PackedSequence.Builder(parseLocusLength(line));
+                } else if (GenBankText.startsWith(line, "DEFINITION")) {
+                    section = Section.DEFINITION;
+                    appendHeaderValue(definition, line);
+                } else if (GenBankText.startsWith(line, "ACCESSION")) {
+                    section = Section.ACCESSION;
+                    appendHeaderValue(accession, line);
+                } else if (GenBankText.startsWith(line, "FEATURES")) {
+                    section = Section.FEATURES;
+                } else if (GenBankText.startsWith(line, "ORIGIN")) {
+                    section = Section.ORIGIN;
+                } else {
+                    section = Section.OTHER;
+                }
+                continue;
+            }
+
+            /* Continuation lines belong to the current section. */
+            switch (section) {
+                case DEFINITION: appendHeaderValue(definition, line); break;
+                case ACCESSION: appendHeaderValue(accession, line); break;
+                case FEATURES: collectFeatureLine(line); break;
+                case ORIGIN: appendSequence(line); break;
+                default: break;
+            }
+        }
+
+        if (!started) {
+            return null;
+        }
+
+        /* Parse the collected features, the last start entry marks the end of the last feature. */
+        addFeatureStart(features.length());
+        GenBankFeatureParser.Chunk parsed = GenBankFeatureParser.parseAll(new QualifierSource(features.toString()),
+                featureStarts, featureCount, featurePool);
+        return new GenBankFeatures(definition.toString(), accession.toString(), parsed.getOrganism(),
+                parsed.getCdsElements(), parsed.getGeneElements(), origin.build());
+    }
+
+    /**
+     * Clear all state of the previous record.
+     */
+    private void reset() {
+        section = Section.OTHER;
+        definition.setLength(0);
+        accession.setLength(0);
+        features = new StringBuilder();
+        featureCount = 0;
+        collecting = false;
+        origin = new PackedSequence.Builder(16);
+    }
+
+    /**
+     * Collect a line of the feature table when it belongs to a gene, CDS or source feature.
+     * The collected text is retained for decoding qualifiers, so the indent of continuation lines is dropped.
+     * @param line contains the feature line.
+     */
+    private void collectFeatureLine(final CharSequence line) {
+        if (GenBankText.isFeatureStart(line)) {
+            collecting = GenBankText.isFeatureKey(line, "gene") || GenBankText.isFeatureKey(line, "CDS")
+                    || GenBankText.isFeatureKey(line, "source");
+            if (collecting) {
+                addFeatureStart(features.length());
+                featureCount++;
+                features.append(line).append('\n');
+            }
+        } else if (collecting) {
+            features.append(line, GenBankText.skipSpaces(line, 0), line.length()).append('\n');
+        }
+    }
+
+    /**
+     * Store the start offset of a feature at index featureCount.
+     * @param offset is the offset of the feature in features.
+     */
+    private void addFeatureStart(final int offset) {
+        if (featureCount == featureStarts.length) {
+            featureStarts = Arrays.copyOf(featureStarts, featureCount * 2);
+        }
+        featureStarts[featureCount] = offset;
+    }
+
+    /**
+     * Append the bases of a sequence line in upper case, skipping numbers and spaces.
+     * @param line contains the sequence line.
+     */
+    private void appendSequence(final CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                origin.append((char) (c - ('a' - 'A')));
+            } else if (c >= 'A' && c <= 'Z') {
+                origin.append(c);
+            }
+        }
+    }
+
+    /**
+     * Get the sequence length from the LOCUS line, used to size the sequence buffer.
+     * @param line contains the LOCUS line.
+     * @return the sequence length or 16 when not found.
+     */
+    private static int parseLocusLength(final CharSequence line) {
+        int end = GenBankText.indexOf(line, " bp", 0);
+        if (end < 0) {
+            end = GenBankText.indexOf(line, " aa", 0);
+        }
+        int start = end;
+        while (start > 0 && Character.isDigit(line.charAt(start - 1))) {
+            start--;
+        }
+        if (end < 0 || start == end || end - start > 9) {
+            return 16;
+        }
+        return Integer.parseInt(line.subSequence(start, end).toString());
+    }
+
+    /**
+     * Append a header value to its buffer, continuation lines are separated by one space.
+     * @param target is the value buffer.
+     * @param line contains the header line.
+     */
+    private static void appendHeaderValue(final StringBuilder target, final CharSequence line) {
+        if (target.length() > 0) {
+            target.append(' ');
+        }
+        GenBankText.appendTrimmed(target, line, Math.min(GenBankText.HEADER_VALUE_COLUMN, line.length()));
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned, columnar binary format for a parsed GenBank record. Every column is written as a length followed by a
+ * primitive array, so reading a snapshot is a memory map followed by bulk copies instead of a text parse.
+ *
+ * Layout (big endian): magic "GBKSNAP", version, string table (offsets and UTF-8 bytes), definition, accession and
+ * organism ids, gene columns (first, last, reverse bits, segments, name ids), CDS columns (first, last, reverse bits,
+ * segments, product, protein id and translation ids, gene index), the packed sequence (length, 2 bit words, non ACGT
+ * runs) and
+ * the statistics (base composition, feature counts per strand, gene length, coding bases and codon counts).
+ * The segments of a column are stored as an offset per feature (no segments for a plain range), the flattened
+ * segment starts, ends and reverse bits, and the partial start and end bits of each feature.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class GenBankSnapshot {
+
+    /**
+     * @param MAGIC is written at the start of every snapshot.
+     */
+    private static final byte[] MAGIC = {'G', 'B', 'K', 'S', 'N', 'A', 'P', 0};
+
+    /**
+     * @param VERSION is the version of the snapshot layout.
+     */
+    static final int VERSION = 4;
+
+    /**
+     * Utility class, not instantiated.
+     */
+    private GenBankSnapshot() {
+    }
+
+    /**
+     * Write a GenBank record to a snapshot file.
+     * @param features is the record to write.
+     * @param path is the snapshot file, it is replaced when it exists.
+     * @throws IOException when writing fails or a coordinate does not fit in an int.
+     */
+    static void write(final GenBankFeatures features, final Path path) throws IOException {
+
+        /* Collect all strings in a table, equal strings are stored once. */
+        StringTable strings = new StringTable();
+        int definition = strings.add(features.getDefinition());
+        int accession = strings.add(features.getAccession());
+        int organism = strings.add(features.getOrganism());
+
+        List<Gene> genes = features.getGeneElements();
+        int[] geneFirst = new int[genes.size()];
+        int[] geneLast = new int[genes.size()];
+        long[] geneReverse = new long[(genes.size() + 63) >>> 6];
+        int[] geneNames = new int[genes.size()];
+        List<Coordinates> geneLocations = new ArrayList<>(genes.size());
+        int index = 0;
+        for (Gene g : genes) {
+            geneLocations.add(g.getCoordinates());
+            geneFirst[index] = toInt(g.getCoordinates().getFirst());
+            geneLast[index] = toInt(g.getCoordinates().getLast());
+            setBit(geneReverse, index, g.getDirection() == SequenceOrientation.REVERSE);
+            geneNames[index] = strings.add(g.getGene());
+            index++;
+        }
+
+        List<CodingSequence> cds = features.getCdsElements();
+        int[] cdsFirst = new int[cds.size()];
+        int[] cdsLast = new int[cds.size()];
+        long[] cdsReverse = new long[(cds.size() + 63) >>> 6];
+        int[] cdsProducts = new int[cds.size()];
+        int[] cdsProteinIDs = new int[cds.size()];
+        int[] cdsTranslations = new int[cds.size()];
+        int[] cdsGenes = new int[cds.size()];
+        List<Coordinates> cdsLocations = new ArrayList<>(cds.size());
+
+        /* The gene of each CDS is stored as its index, so the join is not done again without the qualifiers. */
+        Map<Gene, Integer> geneIds = new IdentityHashMap<>(genes.size() * 2);
+        for (Gene g : genes) {
+            geneIds.put(g, geneIds.size());
+        }
+        index = 0;
+        for (CodingSequence c : cds) {
+            cdsLocations.add(c.getCoordinates());
+            cdsFirst[index] = toInt(c.getCoordinates().getFirst());
+            cdsLast[index] = toInt(c.getCoordinates().getLast());
+            setBit(cdsReverse, index, c.getDirection() == SequenceOrientation.REVERSE);
+            cdsProducts[index] = strings.add(c.getProduct());
+            cdsProteinIDs[index] = strings.add(c.getProteinID());
+            cdsTranslations[index] = strings.add(c.getTranslation());
+            cdsGenes[index] = c.getGene() == null ? -1 : geneIds.get(c.getGene());
+            index++;
+        }
+
+        /* When writing fails, for example on a segment that does not fit, no half written snapshot is left behind. */
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path),
+                    64 * 1024))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                strings.write(out);
+                out.writeInt(definition);
+                out.writeInt(accession);
+                out.writeInt(organism);
+
+                writeInts(out, geneFirst);
+                writeInts(out, geneLast);
+                writeLongs(out, geneReverse);
+                writeSegments(out, geneLocations);
+                writeInts(out, geneNames);
+
+                writeInts(out, cdsFirst);
+                writeInts(out, cdsLast);
+                writeLongs(out, cdsReverse);
+                writeSegments(out, cdsLocations);
+                writeInts(out, cdsProducts);
+                writeInts(out, cdsProteinIDs);
+                writeInts(out, cdsTranslations);
+                writeInts(out, cdsGenes);
+
+                PackedSequence origin = features.getOrigin();
+                out.writeInt(origin.length());
+                writeLongs(out, origin.getWords());
+                writeInts(out, origin.getExceptionStarts());
+                writeInts(out, origin.getExceptionEnds());
+                out.writeInt(origin.getExceptionBases().length);
+                for (char base : origin.getExceptionBases()) {
+                    out.writeChar(base);
+                }
+
+                GenomeStatistics statistics = features.getStatistics();
+                writeInts(out, statistics.getComposition());
+                writeInts(out, statistics.getFeatureCounts());
+                out.writeLong(statistics.getTotalGeneLength());
+                out.writeLong(statistics.getCodingBases());
+                writeLongs(out, statistics.getCodonCounts());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Read a GenBank record from a snapshot file.
+     * @param path is the snapshot file.
+     * @return GenBankFeatures object of the record.
+     * @throws IOException when the file can not be read or is not a snapshot of this version.
+     */
+    static GenBankFeatures read(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            /* Check magic and version before reading any column. */
+            byte[] magic = new byte[MAGIC.length];
+            if (buffer.remaining() < MAGIC.length + 4) {
+                throw new IOException("File '" + path + "' is not a GenBank snapshot.");
+            }
+            buffer.get(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException("File '" + path + "' is not a GenBank snapshot.");
+                }
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("GenBank snapshot version " + version + " is not supported, expected version "
+                        + VERSION + ".");
+            }
+
+            try {
+                String[] strings = StringTable.read(buffer);
+                String definition = strings[buffer.getInt()];
+                String accession = strings[buffer.getInt()];
+                String organism = strings[buffer.getInt()];
+
+                int[] geneFirst = readInts(buffer);
+                int[] geneLast = readInts(buffer);
+                long[] geneReverse = readLongs(buffer);
+                Coordinates[] geneLocations = readSegments(buffer, geneFirst, geneLast);
+                int[] geneNames = readInts(buffer);
+                List<Gene> genes = new ArrayList<>(geneFirst.length);
+                for (int i = 0; i < geneFirst.length; i++) {
+                    genes.add(new Gene(geneLocations[i], strings[geneNames[i]],
+                            direction(geneReverse, i, geneLocations[i])));
+                }
+
+                int[] cdsFirst = readInts(buffer);
+                int[] cdsLast = readInts(buffer);
+                long[] cdsReverse = readLongs(buffer);
+                Coordinates[] cdsLocations = readSegments(buffer, cdsFirst, cdsLast);
+                int[] cdsProducts = readInts(buffer);
+                int[] cdsProteinIDs = readInts(buffer);
+                int[] cdsTranslations = readInts(buffer);
+                int[] cdsGenes = readInts(buffer);
+                List<CodingSequence> cds = new ArrayList<>(cdsFirst.length);
+                for (int i = 0; i < cdsFirst.length; i++) {
+                    cds.add(new CodingSequence(cdsLocations[i], strings[cdsProducts[i]], strings[cdsProteinIDs[i]],
+                            strings[cdsTranslations[i]], direction(cdsReverse, i, cdsLocations[i])));
+                }
+                FeatureJoin.link(genes, cds, cdsGenes);
+
+                int length = buffer.getInt();
+                long[] words = readLongs(buffer);
+                int[] starts = readInts(buffer);
+                int[] ends = readInts(buffer);
+                char[] bases = new char[buffer.getInt()];
+                buffer.asCharBuffer().get(bases);
+                buffer.position(buffer.position() + 2 * bases.length);
+
+                int[] composition = readInts(buffer);
+                int[] featureCounts = readInts(buffer);
+                long totalGeneLength = buffer.getLong();
+                long codingBases = buffer.getLong();
+                long[] codonCounts = readLongs(buffer);
+                return new GenBankFeatures(definition, accession, organism, cds, genes,
+                        new PackedSequence(words, length, starts, ends, bases, composition),
+                        new GenomeStatistics(length, composition, featureCounts, totalGeneLength, codingBases,
+                                codonCounts));
+
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new IOException("GenBank snapshot '" + path + "' is truncated or corrupt.", e);
+            }
+        }
+    }
+
+    /**
+     * Write the segments and partial markers of a column of locations.
+     * @param out is the snapshot stream.
+     * @param locations are the locations in column order.
+     * @throws IOException when writing fails.
+     */
+    private static void writeSegments(final DataOutputStream out, final List<Coordinates> locations)
+            throws IOException {
+        int[] offsets = new int[locations.size() + 1];
+        long[] partialStart = new long[(locations.size() + 63) >>> 6];
+        long[] partialEnd = new long[(locations.size() + 63) >>> 6];
+        int index = 0;
+        for (Coordinates location : locations) {
+            int count = location.getSegmentCount();
+            offsets[index + 1] = offsets[index] + (count > 1 ? count : 0);
+            setBit(partialStart, index, location.isPartialStart());
+            setBit(partialEnd, index, location.isPartialEnd());
+            index++;
+        }
+
+        int total = offsets[locations.size()];
+        int[] starts = new int[total];
+        int[] ends = new int[total];
+        long[] reverse = new long[(total + 63) >>> 6];
+        index = 0;
+        for (Coordinates location : locations) {
+            for (int s = offsets[index]; s < offsets[index + 1]; s++) {
+                starts[s] = toInt(location.getSegmentStart(s - offsets[index]));
+                ends[s] = toInt(location.getSegmentEnd(s - offsets[index]));
+                setBit(reverse, s, location.isSegmentReverse(s - offsets[index]));
+            }
+            index++;
+        }
+
+        writeInts(out, offsets);
+        writeInts(out, starts);
+        writeInts(out, ends);
+        writeLongs(out, reverse);
+        writeLongs(out, partialStart);
+        writeLongs(out, partialEnd);
+    }
+
+    /**
+     * Read a column of locations written by writeSegments.
+     * @param buffer is the mapped snapshot.
+     * @param first contains the first coordinate of each location.
+     * @param last contains the last coordinate of each location.
+     * @return Coordinates object of each location.
+     */
+    private static Coordinates[] readSegments(final ByteBuffer buffer, final int[] first, final int[] last) {
+        int[] offsets = readInts(buffer);
+        int[] starts = readInts(buffer);
+        int[] ends = readInts(buffer);
+        long[] reverse = readLongs(buffer);
+        long[] partialStart = readLongs(buffer);
+        long[] partialEnd = readLongs(buffer);
+
+        Coordinates[] locations = new Coordinates[first.length];
+        for (int i = 0; i < locations.length; i++) {
+            int from = offsets[i];
+            int to = offsets[i + 1];
+            boolean lower = isSet(partialStart, i);
+            boolean upper = isSet(partialEnd, i);
+            if (from == to) {
+                locations[i] = new Coordinates(first[i], last[i], lower, upper);
+            } else {
+                boolean[] segmentReverse = new boolean[to - from];
+                for (int s = from; s < to; s++) {
+                    segmentReverse[s - from] = isSet(reverse, s);
+                }
+                locations[i] = new Coordinates(first[i], last[i], Arrays.copyOfRange(starts, from, to),
+                        Arrays.copyOfRange(ends, from, to), segmentReverse, lower, upper);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Set a bit in a bit set when value is true.
+     * @param bits is the bit set.
+     * @param index is the bit index.
+     * @param value is the new value.
+     */
+    private static void setBit(final long[] bits, final int index, final boolean value) {
+        if (value) {
+            bits[index >>> 6] |= 1L << (index & 63);
+        }
+    }
+
+    /**
+     * Get the direction stored in a bit set, a location with segments on both strands is mixed.
+     * @param bits is the bit set with a set bit for each reverse feature.
+     * @param index is the bit index.
+     * @param location is the location of the feature.
+     * @return SequenceOrientation of the feature.
+     */
+    private static SequenceOrientation direction(final long[] bits, final int index, final Coordinates location) {
+        if (location.isMixedStrand()) {
+            return SequenceOrientation.MIXED;
+        }
+        return isSet(bits, index) ? SequenceOrientation.REVERSE : SequenceOrientation.FORWARD;
+    }
+
+    /**
+     * Check if a bit is set in a bit set.
+     * @param bits is the bit set.
+     * @param index is the bit index.
+     * @return true when the bit is set.
+     */
+    private static boolean isSet(final long[] bits, final int index) {
+        return (bits[index >>> 6] & (1L << (index & 63))) != 0;
+    }
+
+    /**
+     * Convert a coordinate to the int that is stored in a snapshot.
+     * @param value is the coordinate.
+     * @return the coordinate as int.
+     * @throws IOException when the coordinate does not fit in an int, it would change when it is read back.
+     */
+    private static int toInt(final long value) throws IOException {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IOException("Coordinate " + value + " is too large for a GenBank snapshot.");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Write an int array preceded by its length.
+     * @param out is the snapshot stream.
+     * @param values are the values to write.
+     * @throws IOException when writing fails.
+     */
+    private static void writeInts(final DataOutputStream out, final int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Write a long array preceded by its length.
+     * @param out is the snapshot stream.
+     * @param values are the values to write.
+     * @throws IOException when writing fails.
+     */
+    private static void writeLongs(final DataOutputStream out, final long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    /**
+     * Read an int array preceded by its length.
+     * @param buffer is the mapped snapshot.
+     * @return int array.
+     */
+    private static int[] readInts(final ByteBuffer buffer) {
+        int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * values.length);
+        return values;
+    }
+
+    /**
+     * Read a long array preceded by its length.
+     * @param buffer is the mapped snapshot.
+     * @return long array.
+     */
+    private static long[] readLongs(final ByteBuffer buffer) {
+        long[] values = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + 8 * values.length);
+        return values;
+    }
+
+    /**
+     * Table of distinct strings, referenced by index from the columns.
+     */
+    private static final class StringTable {
+
+        /**
+         * @param ids contains the index of every added string.
+         */
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        /**
+         * @param values contains the strings in index order.
+         */
+        private final List<String> values = new ArrayList<>();
+
+        /**
+         * Add a string to the table.
+         * @param value is the string, null is stored as an empty string.
+         * @return the index of the string.
+         */
+        private int add(final String value) {
+            String key = value == null ? "" : value;
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = values.size();
+                ids.put(key, id);
+                values.add(key);
+            }
+            return id;
+        }
+
+        /**
+         * Write the table as an offset column followed by the UTF-8 bytes of all strings.
+         * @param out is the snapshot stream.
+         * @throws IOException when writing fails.
+         */
+        private void write(final DataOutputStream out) throws IOException {
+            byte[][] encoded = new byte[values.size()][];
+            int[] offsets = new int[values.size() + 1];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+                offsets[i + 1] = offsets[i] + encoded[i].length;
+            }
+            writeInts(out, offsets);
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+        }
+
+        /**
+         * Read a table written by write.
+         * @param buffer is the mapped snapshot.
+         * @return the strings in index order.
+         */
+        private static String[] read(final ByteBuffer buffer) {
+            int[] offsets = readInts(buffer);
+            byte[] bytes = new byte[offsets[offsets.length - 1]];
+            buffer.get(bytes);
+            String[] strings = new String[offsets.length - 1];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+            }
+            return strings;
+        }
+    }
+}
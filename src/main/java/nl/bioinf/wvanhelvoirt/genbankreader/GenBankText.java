@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+/**
+ * Column layout constants and allocation free text helpers shared by the GenBank parsers.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class GenBankText {
+
+    /**
+     * @param HEADER_VALUE_COLUMN is the column where header values start.
+     */
+    static final int HEADER_VALUE_COLUMN = 12;
+
+    /**
+     * @param FEATURE_KEY_COLUMN is the column where feature keys start.
+     */
+    static final int FEATURE_KEY_COLUMN = 5;
+
+    /**
+     * @param FEATURE_VALUE_COLUMN is the column where locations and qualifiers start.
+     */
+    static final int FEATURE_VALUE_COLUMN = 21;
+
+    /**
+     * Utility class, not instantiated.
+     */
+    private GenBankText() {
+    }
+
+    /**
+     * Check if a line of the feature table starts a new feature.
+     * @param line contains the feature line.
+     * @return true when column 5 contains a feature key.
+     */
+    static boolean isFeatureStart(final CharSequence line) {
+        return line.length() > FEATURE_KEY_COLUMN && line.charAt(FEATURE_KEY_COLUMN) != ' ';
+    }
+
+    /**
+     * Check if a feature line starts with the given feature key.
+     * @param line contains the feature line.
+     * @param key is the feature key to look for.
+     * @return true when the key in column 5 equals key.
+     */
+    static boolean isFeatureKey(final CharSequence line, final String key) {
+        int end = FEATURE_KEY_COLUMN + key.length();
+        return startsWith(line, FEATURE_KEY_COLUMN, key) && (line.length() == end || line.charAt(end) == ' ');
+    }
+
+    /**
+     * Append a part of a line without leading and trailing spaces and with inner white space collapsed.
+     * @param target is the buffer to append to.
+     * @param line contains the text.
+     * @param start is the first index to append.
+     */
+    static void appendTrimmed(final StringBuilder target, final CharSequence line, final int start) {
+        boolean space = false;
+        for (int i = skipSpaces(line, start); i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space) {
+                    target.append(' ');
+                    space = false;
+                }
+                target.append(c);
+            }
+        }
+    }
+
+    /**
+     * Get the first index at or after start that is not a space.
+     * @param line contains the text.
+     * @param start is the index to start from.
+     * @return the index of the first non space character.
+     */
+    static int skipSpaces(final CharSequence line, final int start) {
+        int i = start;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Check if a line starts with the given text.
+     * @param line contains the text.
+     * @param prefix is the text to look for.
+     * @return true when the line starts with prefix.
+     */
+    static boolean startsWith(final CharSequence line, final String prefix) {
+        return startsWith(line, 0, prefix);
+    }
+
+    /**
+     * Check if a line contains the given text at the given column.
+     * @param line contains the text.
+     * @param column is the index to start comparing.
+     * @param prefix is the text to look for.
+     * @return true when the line has prefix at column.
+     */
+    static boolean startsWith(final CharSequence line, final int column, final String prefix) {
+        if (line.length() - column < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(column + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the index of a character in a line.
+     * @param line contains the text.
+     * @param c is the character to look for.
+     * @param start is the index to start from.
+     * @return the index of c or -1.
+     */
+    static int indexOf(final CharSequence line, final char c, final int start) {
+        for (int i = start; i < line.length(); i++) {
+            if (line.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the index of a text in a line.
+     * @param line contains the text.
+     * @param text is the text to look for.
+     * @param start is the index to start from.
+     * @return the index of text or -1.
+     */
+    static int indexOf(final CharSequence line, final String text, final int start) {
+        for (int i = start; i <= line.length() - text.length(); i++) {
+            if (startsWith(line, i, text)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -5,11 +5,21 @@
 
 package nl.bioinf.wvanhelvoirt.genbankreader;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
  * @version 1.0.0
  */
-public class Gene {
+public class Gene implements Serializable {
+
+    /**
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
 
     /**
      * @param coordinates is a Coordinates object that contains start and stop coordinates.
@@ -17,15 +27,35 @@ public class Gene {
     private final Coordinates coordinates;
 
     /**
-     * @param gene is string with the name of the gene.
+     * @param gene is the shared symbol of the gene name, null until decoded from qualifiers.
      */
-    private final String gene;
+    private StringDictionary.Symbol gene;
 
     /**
      * @param direction is a SequenceOrientation object that contains the orientation of the gene sequence.
      */
     private final SequenceOrientation direction;
 
+    /**
+     * @param qualifiers contains the qualifier lines of the gene, null when the name was given.
+     */
+    private final QualifierSource qualifiers;
+
+    /**
+     * @param qualifierStart is the offset of the first qualifier line in qualifiers.
+     */
+    private final int qualifierStart;
+
+    /**
+     * @param qualifierEnd is the offset after the last qualifier line in qualifiers.
+     */
+    private final int qualifierEnd;
+
+    /**
+     * @param codingSequences contains the CDS(s) of this gene, linked when the record is assembled.
+     */
+    private List<CodingSequence> codingSequences = Collections.emptyList();
+
     /**
     * Constructor for a single Gene.
     * @param coordinates contains start and stop coordinates of gene.
@@ -37,8 +67,32 @@ public class Gene {
             final SequenceOrientation direction) {
 
         this.coordinates = coordinates;
-        this.gene = gene;
+        this.gene = StringDictionary.getShared().intern(gene);
+        this.direction = direction;
+        this.qualifiers = null;
+        this.qualifierStart = 0;
+        this.qualifierEnd = 0;
+    }
+
+    /**
+    * Constructor for a Gene whose qualifiers are decoded on first access.
+    * @param coordinates contains start and stop coordinates of gene.
+    * @param direction contains the direction of the gene sequence.
+    * @param qualifiers contains the qualifier lines of the record.
+    * @param qualifierStart is the offset of the first qualifier line of the gene.
+    * @param qualifierEnd is the offset after the last qualifier line of the gene.
+    */
+    Gene(final Coordinates coordinates,
+            final SequenceOrientation direction,
+            final QualifierSource qualifiers,
+            final int qualifierStart,
+            final int qualifierEnd) {
+
+        this.coordinates = coordinates;
         this.direction = direction;
+        this.qualifiers = qualifiers;
+        this.qualifierStart = qualifierStart;
+        this.qualifierEnd = qualifierEnd;
     }
 
     /**
@@ -54,9 +108,51 @@ public class Gene {
     * @return gene.
     */
     public String getGene() {
+        return getGeneSymbol().getValue();
+    }
+
+    /**
+    * Get the id of the gene name in the shared dictionary, genes with equal names have equal ids.
+    * @return gene name id.
+    */
+    public int getGeneId() {
+        return getGeneSymbol().getId();
+    }
+
+    /**
+    * Get the shared symbol of the gene name, decoding it on first access.
+    * @return gene symbol.
+    */
+    private StringDictionary.Symbol getGeneSymbol() {
+        if (gene == null) {
+
+            /* Name is /gene, else /locus_tag, else empty. */
+            String name = getQualifier("gene");
+            if (name == null) {
+                name = getQualifier("locus_tag");
+            }
+            gene = StringDictionary.getShared().intern(name != null ? name : "");
+        }
         return gene;
     }
 
+    /**
+    * Get the value of a qualifier of this gene, decoded from the record text.
+    * @param name is the qualifier name without slash, for example locus_tag.
+    * @return the value or null when the gene has no such qualifier.
+    */
+    public String getQualifier(final String name) {
+        return qualifiers == null ? null : qualifiers.decode(qualifierStart, qualifierEnd, name);
+    }
+
+    /**
+    * Get the qualifier lines this gene decodes its qualifiers from.
+    * @return qualifiers or null when all values were given.
+    */
+    QualifierSource getQualifierSource() {
+        return qualifiers;
+    }
+
     /**
     * Get the sequence direction.
     * @return direction.
@@ -65,6 +161,25 @@ public class Gene {
         return direction;
     }
 
+    /**
+    * Get the CDS(s) of this gene, in record order.
+    * @return codingSequences.
+    */
+    public List<CodingSequence> getCodingSequences() {
+        return Collections.unmodifiableList(codingSequences);
+    }
+
+    /**
+    * Link a CDS to this gene.
+    * @param cds is the CDS of this gene.
+    */
+    void addCodingSequence(final CodingSequence cds) {
+        if (codingSequences.isEmpty()) {
+            codingSequences = new ArrayList<>(1);
+        }
+        codingSequences.add(cds);
+    }
+
     @Override
     public String toString() {
         return "Coordinates: " + getCoordinates() + ", Gene: " + getGene() + ", Direction: " + getDirection();
@@ -5,19 +5,26 @@
 
 package nl.bioinf.wvanhelvoirt.genbankreader;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
@@ -26,10 +33,35 @@ import java.util.regex.Pattern;
 public class GeneBankFileParser implements Serializable {
 
     /**
-     * inputFile is the path of the input file.
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * inputFile is the path of the input file, or the name of the file when parsing a stream.
      */
     private final String inputFile;
 
+    /**
+     * BUFFER_SIZE is the size of the read buffers for (compressed) input.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * featurePool is the pool used to parse large feature tables in parallel, null to parse serially.
+     */
+    private transient ForkJoinPool featurePool = ForkJoinPool.commonPool();
+
+    /**
+     * inputStream is the stream to parse instead of the input file, null when parsing a file.
+     */
+    private transient InputStream inputStream;
+
+    /**
+     * streamed is true when the parser reads from a stream instead of the input file.
+     */
+    private final boolean streamed;
+
     /**
      * The constructor which checks given input file path.
      * @param inputFile is needed, is input file path.
@@ -39,130 +71,158 @@ public class GeneBankFileParser implements Serializable {
 
         /* Check if given input is a file, not a directory and is GenBank. */
         File givenInputFile = new File(inputFile);
-        if (givenInputFile.isFile() && !givenInputFile.isDirectory() && inputFile.matches(".*\\.gbk$|.*\\.gb$")) {
+        if (givenInputFile.isFile() && !givenInputFile.isDirectory() && isGenBankName(inputFile)) {
             this.inputFile = inputFile;
+            this.streamed = false;
         } else {
             throw new FileNotFoundException("Given file does not exist, is a directory or is not a GenBank.");
         }
     }
 
+    /**
+     * The constructor for parsing a stream, for example an upload, without writing it to a file first.
+     * The stream is read once while parsing and closed afterwards.
+     * @param inputStream contains the GenBank text.
+     * @param inputName is the name of the GenBank file that is streamed.
+     * @throws FileNotFoundException when the name is not a genbank file name.
+     */
+    public GeneBankFileParser(final InputStream inputStream, final String inputName) throws FileNotFoundException {
+        if (!isGenBankName(inputName)) {
+            throw new FileNotFoundException("Given file '" + inputName + "' is not a GenBank.");
+        }
+        this.inputFile = inputName;
+        this.inputStream = inputStream;
+        this.streamed = true;
+    }
+
+    /**
+     * The constructor for parsing a channel without writing it to a file first.
+     * @param inputChannel contains the GenBank text.
+     * @param inputName is the name of the GenBank file that is read from the channel.
+     * @throws FileNotFoundException when the name is not a genbank file name.
+     */
+    public GeneBankFileParser(final ReadableByteChannel inputChannel, final String inputName)
+            throws FileNotFoundException {
+        this(Channels.newInputStream(inputChannel), inputName);
+    }
+
+    /**
+     * Check if a file name has a GenBank extension, optionally followed by a gzip extension.
+     * @param name is the file name.
+     * @return true when the name ends with .gbk, .gb or .gbff (plus .gz or .bgz).
+     */
+    public static boolean isGenBankName(final String name) {
+        return name != null && name.matches(".*\\.(gbk|gb|gbff)(\\.gz|\\.bgz)?$");
+    }
+
     /**
      * Function for parsing GenBank file contents.
+     * The file is read line by line in a single pass, see GenBankRecordParser.
+     * Only the first record of a multi-record file is parsed, use records() for all records.
      * @return GenBankFeatures object that contains all GenBank data.
      */
     public GenBankFeatures ParseGenBankContent() {
 
-        /* Initialize vaiables used for GenBank data. */
-        Path path = Paths.get(getInputFile());
-        String definition = "";
-        String accession = "";
-        String organism = "";
-        List<CodingSequence> cdsElements = new LinkedList();
-        List<Gene> geneElements = new LinkedList();
-        String origin = "";
-
         /* Try to read input file for parsing. */
-        try (BufferedReader reader = Files.newBufferedReader(path);
-            Scanner scanner = new Scanner(reader);) {
-
-            /* Find definition from GenBank. */
-            scanner.findWithinHorizon(Pattern.compile("(?s)(?<=DEFINITION)(.+?)(?=ACCESSION)"), 0);
-            definition = scanner.match().group(1).replaceAll("\\s+", " ").trim();
-
-            /* Find accession from GenBank. */
-            scanner.findWithinHorizon(Pattern.compile("(?s)(?<=ACCESSION)(.+?)(?=VERSION)"), 0);
-            accession = scanner.match().group(1).replaceAll("\\s+", " ").trim();
-
-            /* Find from organism to origin sequence from GenBank. */
-            scanner.findWithinHorizon(Pattern.compile("(?s)source.+?/organism=\"(.+?)\"(.+?)(?=ORIGIN)"), 0);
-
-            /* Find organism from previous scanner match. */
-            organism = scanner.match().group(1);
-
-            /* For each CDS found in prevoius scanner match retrieve data. */
-            Matcher matchCDS = Pattern.compile("(?s)(?<=CDS)(.+?/translation=\".+?\")")
-                    .matcher(scanner.match().group(2));
-            while (matchCDS.find()) {
-
-                /* Initialize vaiables used for each CDS. */
-                String product = "";
-                String proteinID = "";
-                String translation = "";
-                SequenceOrientation direction = SequenceOrientation.FORWARD;
-
-                /* Check orientation of CDS. */
-                String[] cds = matchCDS.group(1).replaceAll("[\\s\"]+", "").split("/");
-                if (cds[0].contains("complement")) {
-                    direction = SequenceOrientation.REVERSE;
-                }
-
-                /* Create coordinates object containing start and stop values. */
-                String[] coordinates = cds[0].replaceAll("[^\\d\\.]+", "").split("\\.\\.");
-                Coordinates cs = new Coordinates(Integer.parseInt(coordinates[0]),
-                        Integer.parseInt(coordinates[coordinates.length - 1]));
-
-                /* Retrieve all useful data for given CDS. */
-                for (String i : cds) {
-                    if (i.contains("product")) {
-                        product = i.replace("product=", "");
-                    } else if (i.contains("protein_id")) {
-                        proteinID = i.replace("product_id=", "");
-                    } else if (i.contains("translation")) {
-                        translation = i.replace("translation=", "").toUpperCase();
-                    }
-                }
-
-                /* Add CDS object to list with CDS(s) */
-                CodingSequence cdsObject = new CodingSequence(cs, product, proteinID, translation, direction);
-                cdsElements.add(cdsObject);
-            }
-
-            /* For each Gene found in prevoius scanner match retrieve data. */
-            Matcher matchGene = Pattern.compile("((?s)(?<=[^/]gene)(.+?/gene=\".+?\")|"
-                    + "(?s)(?<=[^/]gene)(.+?/db_xref=\".+?\"))").matcher(scanner.match().group(2));
-            while (matchGene.find()) {
-
-                /* Initialize vaiables used for each Gene. */
-                String genename = "";
-                SequenceOrientation direction = SequenceOrientation.FORWARD;
-
-                /* Check orientation of Gene. */
-                String[] gene = matchGene.group(1).replaceAll("[\\s\"]+", "").split("/");
-                if (gene[0].contains("complement")) {
-                    direction = SequenceOrientation.REVERSE;
-                }
-
-                /* Create coordinates object containing start and stop values. */
-                String[] coordinates = gene[0].replaceAll("[^\\d\\.]+", "").split("\\.\\.");
-                Coordinates cs = new Coordinates(Integer.parseInt(coordinates[0]),
-                        Integer.parseInt(coordinates[coordinates.length - 1]));
-
-                /* Retrieve all useful data for given Gene. */
-                for (String i : gene) {
-                    if (i.contains("locus_tag")) {
-                        genename = i.replace("locus_tag=", "");
-                    } else if (i.contains("gene")) {
-                        genename = i.replace("gene=", "");
-                    }
-                }
+        try {
+            return parseFirstRecord();
+        } catch (IOException e) {
+            System.out.println("A problem occured: " + e + "\n");
+        }
+        return null;
+    }
 
-                /* Add Gene object to list with Gene(s) */
-                Gene geneObject = new Gene(cs, genename, direction);
-                geneElements.add(geneObject);
-            }
+    /**
+     * Function for parsing the first record, read errors are passed on to the caller.
+     * @return GenBankFeatures object of the first record or null when the input contains no record.
+     * @throws IOException when the input can not be read.
+     */
+    public GenBankFeatures parseFirstRecord() throws IOException {
+        try (GenBankLineReader reader = openReader()) {
+            return new GenBankRecordParser(getFeaturePool()).parse(reader);
+        }
+    }
+
+    /**
+     * Function for parsing all records of a multi-record GenBank file.
+     * Records are parsed one at a time while iterating, close the iterator when stopping early.
+     * @return GenBankRecordIterator over all records in the file.
+     * @throws IOException when the input file can not be opened.
+     */
+    public GenBankRecordIterator recordIterator() throws IOException {
+        return new GenBankRecordIterator(openReader(), new GenBankRecordParser(getFeaturePool()));
+    }
 
-            /* Find from origin from GenBank. */
-            scanner.findWithinHorizon(Pattern.compile("(?s)(?<=ORIGIN)(.+?)(?=//)"), 0);
-            origin = scanner.match().group(1).replaceAll("\\s*\\d*", "").toUpperCase();
+    /**
+     * Open a line reader on the input stream or, when parsing a file, on the input file.
+     * @return GenBankLineReader over the input.
+     * @throws IOException when the input can not be opened or the stream has already been read.
+     */
+    private GenBankLineReader openReader() throws IOException {
+        InputStream stream;
+        if (!streamed) {
+            stream = Files.newInputStream(Paths.get(getInputFile()));
+        } else if (inputStream == null) {
+            throw new IOException("The input stream of '" + getInputFile() + "' has already been parsed.");
+        } else {
+            stream = inputStream;
+            inputStream = null;
+        }
+        return new GenBankLineReader(new InputStreamReader(decompress(stream), StandardCharsets.UTF_8));
+    }
 
-            /* Close scanner en return GenBankfeatures object. */
-            scanner.close();
-            return new GenBankFeatures(definition, accession, organism, cdsElements, geneElements, origin);
+    /**
+     * Detect gzip compressed input by its magic bytes and wrap the stream in a decompressing stream.
+     * BGZF input is decompressed in parallel on the feature pool, other gzip input (including multi-member files,
+     * whose member sizes are unknown until inflated) is decompressed sequentially.
+     * @param raw is the stream as read from the file or upload.
+     * @return stream with the uncompressed GenBank text.
+     * @throws IOException when reading the header fails.
+     */
+    private InputStream decompress(final InputStream raw) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(raw, BUFFER_SIZE);
+        byte[] header = new byte[BgzfInputStream.HEADER_SIZE];
 
-        } catch (IOException e) {
-            System.out.println("A problem occured: " + e + "\n");
+        /* Peek at the first bytes without consuming them. */
+        in.mark(header.length);
+        int length = 0;
+        int count = 0;
+        while (length < header.length && count >= 0) {
+            count = in.read(header, length, header.length - length);
+            length += Math.max(count, 0);
         }
-        return null;
+        in.reset();
+
+        if (length < 2 || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b) {
+            return in;
+        }
+        ForkJoinPool pool = getFeaturePool();
+        if (pool != null && BgzfInputStream.isBgzfHeader(header, length)) {
+            return new BgzfInputStream(in, pool, 2 * pool.getParallelism());
+        }
+        return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Function for parsing all records of a multi-record GenBank file as a lazy stream.
+     * Close the stream (try-with-resources) to release the input file.
+     * @return Stream with a GenBankFeatures object per record.
+     * @throws IOException when the input file can not be opened.
+     */
+    public Stream<GenBankFeatures> records() throws IOException {
+        final GenBankRecordIterator iterator = recordIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            iterator.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
     }
 
     /**
@@ -173,6 +233,23 @@ public class GeneBankFileParser implements Serializable {
         return inputFile;
     }
 
+    /**
+    * Get featurePool value.
+    * @return featurePool.
+    */
+    public ForkJoinPool getFeaturePool() {
+        return featurePool;
+    }
+
+    /**
+    * Set the pool used to parse large feature tables and to decompress BGZF input, the common pool is used by
+    * default.
+    * @param featurePool is the pool to use or null to parse serially.
+    */
+    public void setFeaturePool(final ForkJoinPool featurePool) {
+        this.featurePool = featurePool;
+    }
+
     @Override
     public String toString() {
         return "Input file: " + getInputFile();
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Statistics of a GenBank record, computed once when the record is assembled: base composition (counted while the
+ * sequence was packed), gene and CDS counts per strand, mean gene length, coding density and codon usage over the
+ * CDS regions. All getters take constant time.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+public final class GenomeStatistics implements Serializable {
+
+    /**
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param BASES contains the bases in order of their codon index digit.
+     */
+    private static final String BASES = "ACGT";
+
+    /**
+     * @param AMINO_ACIDS contains the amino acid of each codon in the standard genetic code, in codon index order.
+     */
+    private static final String AMINO_ACIDS = "KNKNTTTTRSRSIIMIQHQHPPPPRRRRLLLLEDEDAAAAGGGGVVVV*Y*YSSSS*CWCLFLF";
+
+    /**
+     * @param length is the sequence length.
+     */
+    private final int length;
+
+    /**
+     * @param composition contains the number of A, C, G, T, N and other characters.
+     */
+    private final int[] composition;
+
+    /**
+     * @param featureCounts contains the number of forward genes, reverse genes, forward CDSs, reverse CDSs, mixed
+     * strand genes and mixed strand CDSs.
+     */
+    private final int[] featureCounts;
+
+    /**
+     * @param totalGeneLength is the summed length of all genes.
+     */
+    private final long totalGeneLength;
+
+    /**
+     * @param codingBases is the number of bases covered by at least one CDS.
+     */
+    private final long codingBases;
+
+    /**
+     * @param codonCounts contains the number of each codon in the CDS regions, in codon index order.
+     */
+    private final long[] codonCounts;
+
+    /**
+    * Constructor for statistics that were computed before, for example read from a snapshot.
+    * @param length is the sequence length.
+    * @param composition contains the number of A, C, G, T, N and other characters.
+    * @param featureCounts contains the number of forward genes, reverse genes, forward CDSs, reverse CDSs, mixed
+    * strand genes and mixed strand CDSs.
+    * @param totalGeneLength is the summed length of all genes.
+    * @param codingBases is the number of bases covered by at least one CDS.
+    * @param codonCounts contains the number of each of the 64 codons.
+    */
+    GenomeStatistics(final int length,
+            final int[] composition,
+            final int[] featureCounts,
+            final long totalGeneLength,
+            final long codingBases,
+            final long[] codonCounts) {
+
+        this.length = length;
+        this.composition = composition;
+        this.featureCounts = featureCounts;
+        this.totalGeneLength = totalGeneLength;
+        this.codingBases = codingBases;
+        this.codonCounts = codonCounts;
+    }
+
+    /**
+    * Compute the statistics of a record.
+    * @param origin is the packed sequence, with its composition.
+    * @param genes contains the genes of the record.
+    * @param cdsElements contains the CDS(s) of the record.
+    * @return GenomeStatistics of the record.
+    */
+    static GenomeStatistics compute(final PackedSequence origin, final List<Gene> genes,
+            final List<CodingSequence> cdsElements) {
+        int[] featureCounts = new int[6];
+        long totalGeneLength = 0;
+        for (Gene g : genes) {
+            featureCounts[countIndex(g.getDirection(), false)]++;
+            totalGeneLength += g.getCoordinates().getSpan(origin.length());
+        }
+        for (CodingSequence c : cdsElements) {
+            featureCounts[countIndex(c.getDirection(), true)]++;
+        }
+        int[] composition = origin.getComposition() != null ? origin.getComposition().clone() : new int[6];
+        return new GenomeStatistics(origin.length(), composition, featureCounts, totalGeneLength,
+                countCodingBases(origin.length(), cdsElements), countCodons(origin, cdsElements));
+    }
+
+    /**
+    * Count the bases covered by the segments of at least one CDS, by merging the segments in start order.
+    * @param length is the sequence length.
+    * @param cdsElements contains the CDS(s).
+    * @return number of coding bases.
+    */
+    private static long countCodingBases(final int length, final List<CodingSequence> cdsElements) {
+        int count = 0;
+        for (CodingSequence c : cdsElements) {
+            count += c.getCoordinates().getSegmentCount();
+        }
+
+        /* Sort the 0 based segment starts together with their index, ends are exclusive. */
+        long[] keys = new long[count];
+        int[] ends = new int[count];
+        int n = 0;
+        for (CodingSequence c : cdsElements) {
+            Coordinates location = c.getCoordinates();
+            for (int s = 0; s < location.getSegmentCount(); s++) {
+                int start = (int) Math.max(location.getSegmentStart(s) - 1, 0);
+                ends[n] = (int) Math.min(location.getSegmentEnd(s), length);
+                keys[n] = (long) start << 32 | n;
+                n++;
+            }
+        }
+        Arrays.sort(keys);
+
+        long covered = 0;
+        int reach = 0;
+        for (long key : keys) {
+            int start = Math.max((int) (key >>> 32), reach);
+            int end = ends[(int) key];
+            if (end > start) {
+                covered += end - start;
+                reach = end;
+            }
+        }
+        return covered;
+    }
+
+    /**
+    * Count the codons of all CDS(s), read in their own frame on their own strand. Codons with other characters than
+    * A, C, G and T are skipped.
+    * @param origin is the packed sequence.
+    * @param cdsElements contains the CDS(s).
+    * @return the number of each codon.
+    */
+    private static long[] countCodons(final PackedSequence origin, final List<CodingSequence> cdsElements) {
+        long[] codons = new long[64];
+        char[] bases = new char[4096];
+        for (CodingSequence c : cdsElements) {
+            Coordinates location = c.getCoordinates();
+
+            /* Collect the segments in biological order, reverse segments as their reverse complement. */
+            int total = 0;
+            for (int s = 0; s < location.getSegmentCount(); s++) {
+                int start = (int) Math.max(location.getSegmentStart(s) - 1, 0);
+                int end = (int) Math.min(location.getSegmentEnd(s), origin.length());
+                if (start >= end) {
+                    continue;
+                }
+                if (total + end - start > bases.length) {
+                    bases = Arrays.copyOf(bases, Math.max(bases.length * 2, total + end - start));
+                }
+                origin.getChars(start, end, bases, total);
+                boolean reverse = location.getSegmentCount() > 1 ? location.isSegmentReverse(s)
+                        : c.getDirection() == SequenceOrientation.REVERSE;
+                if (reverse) {
+                    reverseComplement(bases, total, total + end - start);
+                }
+                total += end - start;
+            }
+
+            /* A partial CDS can start in another frame. */
+            int frame = 0;
+            if (location.isPartialStart() || location.isPartialEnd()) {
+                String codonStart = c.getQualifier("codon_start");
+                if (codonStart != null && codonStart.matches("[123]")) {
+                    frame = Integer.parseInt(codonStart) - 1;
+                }
+            }
+            for (int i = frame; i + 3 <= total; i += 3) {
+                int first = BASES.indexOf(bases[i]);
+                int second = BASES.indexOf(bases[i + 1]);
+                int third = BASES.indexOf(bases[i + 2]);
+                if (first >= 0 && second >= 0 && third >= 0) {
+                    codons[first << 4 | second << 2 | third]++;
+                }
+            }
+        }
+        return codons;
+    }
+
+    /**
+    * Replace a range of bases by its reverse complement.
+    * @param bases contains the range.
+    * @param from is the first index of the range.
+    * @param to is the index after the range.
+    */
+    private static void reverseComplement(final char[] bases, final int from, final int to) {
+        for (int i = from, j = to - 1; i <= j; i++, j--) {
+            char left = complement(bases[i]);
+            bases[i] = complement(bases[j]);
+            bases[j] = left;
+        }
+    }
+
+    /**
+    * Get the complement of a base, other characters are kept.
+    * @param base is the base.
+    * @return complementary base.
+    */
+    private static char complement(final char base) {
+        switch (base) {
+            case 'A': return 'T';
+            case 'C': return 'G';
+            case 'G': return 'C';
+            case 'T': return 'A';
+            default: return base;
+        }
+    }
+
+    /**
+    * Get the sequence length.
+    * @return length.
+    */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+    * Get the number of a base in the sequence.
+    * @param base is A, C, G, T or N.
+    * @return count, 0 for other characters.
+    */
+    public int getBaseCount(final char base) {
+        int index = "ACGTN".indexOf(Character.toUpperCase(base));
+        return index < 0 ? 0 : composition[index];
+    }
+
+    /**
+    * Get the number of characters that are not A, C, G, T or N, such as IUPAC codes.
+    * @return count.
+    */
+    public int getOtherCount() {
+        return composition[5];
+    }
+
+    /**
+    * Get the fraction of G and C among the A, C, G and T bases.
+    * @return GC content between 0 and 1.
+    */
+    public double getGcContent() {
+        long bases = (long) composition[0] + composition[1] + composition[2] + composition[3];
+        return bases == 0 ? 0 : (double) (composition[1] + composition[2]) / bases;
+    }
+
+    /**
+    * Get the number of genes on a strand.
+    * @param direction is the strand.
+    * @return gene count.
+    */
+    public int getGeneCount(final SequenceOrientation direction) {
+        return getFeatureCount(countIndex(direction, false));
+    }
+
+    /**
+    * Get the number of CDS(s) on a strand.
+    * @param direction is the strand.
+    * @return CDS count.
+    */
+    public int getCdsCount(final SequenceOrientation direction) {
+        return getFeatureCount(countIndex(direction, true));
+    }
+
+    /**
+    * Get the index of a strand in featureCounts.
+    * @param direction is the strand.
+    * @param cds is true for the CDS counts, false for the gene counts.
+    * @return index.
+    */
+    private static int countIndex(final SequenceOrientation direction, final boolean cds) {
+        if (direction == SequenceOrientation.MIXED) {
+            return cds ? 5 : 4;
+        }
+        return (cds ? 2 : 0) + (direction == SequenceOrientation.REVERSE ? 1 : 0);
+    }
+
+    /**
+    * Get a feature count, counts that were not stored, such as the mixed strand counts of an older snapshot, are 0.
+    * @param index is the index in featureCounts.
+    * @return count.
+    */
+    private int getFeatureCount(final int index) {
+        return index < featureCounts.length ? featureCounts[index] : 0;
+    }
+
+    /**
+    * Get the mean gene length, from the first to the last base of each gene.
+    * @return mean length in bp, 0 without genes.
+    */
+    public double getMeanGeneLength() {
+        int genes = featureCounts[0] + featureCounts[1] + getFeatureCount(4);
+        return genes == 0 ? 0 : (double) totalGeneLength / genes;
+    }
+
+    /**
+    * Get the fraction of the sequence that is covered by CDS(s).
+    * @return coding density between 0 and 1.
+    */
+    public double getCodingDensity() {
+        return length == 0 ? 0 : (double) codingBases / length;
+    }
+
+    /**
+    * Get the number of a codon in the CDS regions.
+    * @param codon is a codon of A, C, G and T.
+    * @return count, 0 for an invalid codon.
+    */
+    public long getCodonCount(final String codon) {
+        int index = codonIndex(codon);
+        return index < 0 ? 0 : codonCounts[index];
+    }
+
+    /**
+    * Get the number of complete codons in the CDS regions.
+    * @return codon count.
+    */
+    public long getCodonTotal() {
+        long total = 0;
+        for (long count : codonCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+    * Get the codon of a codon index.
+    * @param index is a number from 0 to 63.
+    * @return codon.
+    */
+    static String getCodon(final int index) {
+        return "" + BASES.charAt(index >> 4) + BASES.charAt(index >> 2 & 3) + BASES.charAt(index & 3);
+    }
+
+    /**
+    * Get the amino acid of a codon in the standard genetic code.
+    * @param codon is a codon of A, C, G and T.
+    * @return one letter amino acid, * for a stop codon or X for an invalid codon.
+    */
+    public static char getAminoAcid(final String codon) {
+        int index = codonIndex(codon);
+        return index < 0 ? 'X' : AMINO_ACIDS.charAt(index);
+    }
+
+    /**
+    * Get the index of a codon.
+    * @param codon is the codon.
+    * @return index from 0 to 63 or -1.
+    */
+    private static int codonIndex(final String codon) {
+        if (codon == null || codon.length() != 3) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < 3; i++) {
+            int base = BASES.indexOf(Character.toUpperCase(codon.charAt(i)));
+            if (base < 0) {
+                return -1;
+            }
+            index = index << 2 | base;
+        }
+        return index;
+    }
+
+    /**
+    * Get the base composition, used for writing snapshots.
+    * @return composition.
+    */
+    int[] getComposition() {
+        return composition;
+    }
+
+    /**
+    * Get the gene and CDS counts per strand, used for writing snapshots.
+    * @return featureCounts.
+    */
+    int[] getFeatureCounts() {
+        return featureCounts;
+    }
+
+    /**
+    * Get the summed gene length, used for writing snapshots.
+    * @return totalGeneLength.
+    */
+    long getTotalGeneLength() {
+        return totalGeneLength;
+    }
+
+    /**
+    * Get the number of coding bases, used for writing snapshots.
+    * @return codingBases.
+    */
+    long getCodingBases() {
+        return codingBases;
+    }
+
+    /**
+    * Get the codon counts, used for writing snapshots.
+    * @return codonCounts.
+    */
+    long[] getCodonCounts() {
+        return codonCounts;
+    }
+}
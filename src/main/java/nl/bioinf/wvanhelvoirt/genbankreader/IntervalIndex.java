@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Static index for range queries on feature coordinates. The intervals are sorted by start in primitive arrays that
+ * form an implicit binary tree: the node at index i on level k has its children at i - 2^(k-1) and i + 2^(k-1), and
+ * every node stores the highest end of its subtree. Subtrees that end before the range are skipped, so a query takes
+ * O(log n + k) for k overlapping intervals. Coordinates are inclusive, like in the GenBank file. A location across
+ * the origin is indexed as two intervals, from its first coordinate to past the end of the sequence and from before
+ * the start of the sequence to its last coordinate. It overlaps a range when one of them does, but is never contained
+ * in one.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class IntervalIndex {
+
+    /**
+     * @param LEAF_LEVEL is the level at and below which a subtree is scanned linearly.
+     */
+    private static final int LEAF_LEVEL = 3;
+
+    /**
+     * @param starts contains the interval starts in ascending order.
+     */
+    private final long[] starts;
+
+    /**
+     * @param ends contains the interval ends, in the order of starts.
+     */
+    private final long[] ends;
+
+    /**
+     * @param maxEnds contains the highest end of the subtree of each node.
+     */
+    private final long[] maxEnds;
+
+    /**
+     * @param ids contains the index of each interval in the indexed list.
+     */
+    private final int[] ids;
+
+    /**
+     * @param wrapped is true for each interval that is one of the two parts of a location across the origin.
+     */
+    private final boolean[] wrapped;
+
+    /**
+     * @param rootLevel is the level of the root node, -1 for an empty index.
+     */
+    private final int rootLevel;
+
+    /**
+     * Build an index on the coordinates of a list of features.
+     * @param coordinates contains the coordinates of each feature, in list order.
+     */
+    IntervalIndex(final List<Coordinates> coordinates) {
+        int n = coordinates.size();
+        for (Coordinates location : coordinates) {
+            if (location.isWrapped()) {
+                n++;
+            }
+        }
+
+        /* Split the wrapped locations in two intervals. */
+        long[] intervalStarts = new long[n];
+        long[] intervalEnds = new long[n];
+        int[] intervalIds = new int[n];
+        int count = 0;
+        for (int i = 0; i < coordinates.size(); i++) {
+            Coordinates location = coordinates.get(i);
+            intervalIds[count] = i;
+            intervalStarts[count] = location.getFirst();
+            intervalEnds[count++] = location.isWrapped() ? Long.MAX_VALUE : location.getLast();
+            if (location.isWrapped()) {
+                intervalIds[count] = i;
+                intervalStarts[count] = 0;
+                intervalEnds[count++] = location.getLast();
+            }
+        }
+
+        /* Sort the intervals by start, ties keep their list order. */
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = intervalStarts[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        starts = new long[n];
+        ends = new long[n];
+        maxEnds = new long[n];
+        ids = new int[n];
+        wrapped = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int interval = (int) keys[i];
+            ids[i] = intervalIds[interval];
+            starts[i] = intervalStarts[interval];
+            ends[i] = intervalEnds[interval];
+            wrapped[i] = coordinates.get(ids[i]).isWrapped();
+        }
+        rootLevel = buildMaxEnds();
+    }
+
+    /**
+     * Fill maxEnds bottom up, level by level. Nodes whose right subtree lies past the last interval use the highest
+     * end seen on the path to the last interval.
+     * @return the level of the root node.
+     */
+    private int buildMaxEnds() {
+        int n = starts.length;
+        if (n == 0) {
+            return -1;
+        }
+        int lastIndex = 0;
+        long lastMax = 0;
+        for (int i = 0; i < n; i += 2) {
+            lastIndex = i;
+            lastMax = ends[i];
+            maxEnds[i] = ends[i];
+        }
+        int k = 1;
+        for (; 1L << k <= n; k++) {
+            int x = 1 << (k - 1);
+            for (int i = (x << 1) - 1; i < n; i += x << 2) {
+                long left = maxEnds[i - x];
+                long right = i + x < n ? maxEnds[i + x] : lastMax;
+                maxEnds[i] = Math.max(ends[i], Math.max(left, right));
+            }
+            lastIndex = (lastIndex >> k & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n) {
+                lastMax = Math.max(lastMax, maxEnds[lastIndex]);
+            }
+        }
+        return k - 1;
+    }
+
+    /**
+     * Find the intervals in a range.
+     * @param from is the first coordinate of the range.
+     * @param to is the last coordinate of the range.
+     * @param mode selects overlapping intervals or intervals strictly between from and to.
+     * @return the list indices of the found intervals in ascending order.
+     */
+    int[] query(final long from, final long to, final RangeMode mode) {
+        int[] found = new int[16];
+        int count = 0;
+        if (rootLevel < 0) {
+            return new int[0];
+        }
+
+        /* Stack of nodes to visit: index, level and whether the left subtree was pushed. */
+        int[] stackNode = new int[64];
+        int[] stackLevel = new int[64];
+        boolean[] stackLeftDone = new boolean[64];
+        int top = 0;
+        stackNode[0] = (1 << rootLevel) - 1;
+        stackLevel[0] = rootLevel;
+        top++;
+
+        int n = starts.length;
+        while (top > 0) {
+            top--;
+            int node = stackNode[top];
+            int level = stackLevel[top];
+            boolean leftDone = stackLeftDone[top];
+
+            if (level <= LEAF_LEVEL) {
+
+                /* Small subtree: scan its intervals in start order. */
+                int first = node >> level << level;
+                int last = Math.min(first + (1 << (level + 1)) - 1, n);
+                for (int i = first; i < last && starts[i] <= to; i++) {
+                    if (ends[i] >= from && accept(i, from, to, mode)) {
+                        found = add(found, count++, ids[i]);
+                    }
+                }
+            } else if (!leftDone) {
+
+                /* Visit the node again after its left subtree, skip the left subtree when it ends too early. */
+                int left = node - (1 << (level - 1));
+                stackNode[top] = node;
+                stackLevel[top] = level;
+                stackLeftDone[top] = true;
+                top++;
+                if (left >= n || maxEnds[left] >= from) {
+                    stackNode[top] = left;
+                    stackLevel[top] = level - 1;
+                    stackLeftDone[top] = false;
+                    top++;
+                }
+            } else if (node < n && starts[node] <= to) {
+                if (ends[node] >= from && accept(node, from, to, mode)) {
+                    found = add(found, count++, ids[node]);
+                }
+                stackNode[top] = node + (1 << (level - 1));
+                stackLevel[top] = level - 1;
+                stackLeftDone[top] = false;
+                top++;
+            }
+        }
+
+        /* Both parts of a wrapped location can overlap the range, it is reported once. */
+        Arrays.sort(found, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || found[i] != found[unique - 1]) {
+                found[unique++] = found[i];
+            }
+        }
+        return Arrays.copyOf(found, unique);
+    }
+
+    /**
+     * Create a sweep over the intervals for stabbing queries at non decreasing positions.
+     * @return new Sweep positioned before the first interval.
+     */
+    Sweep sweep() {
+        return new Sweep();
+    }
+
+    /**
+     * Check an overlapping interval against the range mode.
+     * @param i is the sorted index of the interval.
+     * @param from is the first coordinate of the range.
+     * @param to is the last coordinate of the range.
+     * @param mode is the range mode.
+     * @return true when the interval is selected.
+     */
+    private boolean accept(final int i, final long from, final long to, final RangeMode mode) {
+        return mode == RangeMode.OVERLAP || !wrapped[i] && starts[i] > from && ends[i] < to;
+    }
+
+    /**
+     * Store a value in a growable array.
+     * @param values is the array.
+     * @param index is the index to store at.
+     * @param value is the value.
+     * @return values or a larger copy of it.
+     */
+    private static int[] add(final int[] values, final int index, final int value) {
+        int[] target = index < values.length ? values : Arrays.copyOf(values, values.length * 2);
+        target[index] = value;
+        return target;
+    }
+
+    /**
+     * Stabbing queries for positions in non decreasing order, such as the hits of a sequence scan. The intervals are
+     * merged with the positions in one pass over the start order, so n positions cost O(n + intervals) plus the
+     * number of intervals that are open at the same time.
+     */
+    final class Sweep {
+
+        /**
+         * @param next is the sorted index of the first interval that has not been opened.
+         */
+        private int next;
+
+        /**
+         * @param active contains the sorted indices of the open intervals, ordered by list index.
+         */
+        private int[] active = new int[8];
+
+        /**
+         * @param activeCount is the number of open intervals.
+         */
+        private int activeCount;
+
+        /**
+         * Constructor for a sweep, only created by IntervalIndex.
+         */
+        private Sweep() {
+        }
+
+        /**
+         * Move the sweep to a position and find the intervals that strictly contain it (start &lt; position &lt;
+         * end). The position may not be lower than the position of the previous call.
+         * @param position is the position to stab.
+         * @return the number of intervals containing position, get them with getId.
+         */
+        int advance(final long position) {
+
+            /* Open the intervals that start before the position, keeping the active list in list order. */
+            while (next < starts.length && starts[next] < position) {
+                if (activeCount == active.length) {
+                    active = Arrays.copyOf(active, activeCount * 2);
+                }
+                int insert = activeCount;
+                while (insert > 0 && ids[active[insert - 1]] > ids[next]) {
+                    active[insert] = active[insert - 1];
+                    insert--;
+                }
+                active[insert] = next;
+                activeCount++;
+                next++;
+            }
+
+            /* Close the intervals that end at or before the position, they can not contain later positions. */
+            int kept = 0;
+            for (int i = 0; i < activeCount; i++) {
+                if (ends[active[i]] > position) {
+                    active[kept++] = active[i];
+                }
+            }
+            activeCount = kept;
+            return activeCount;
+        }
+
+        /**
+         * Get an interval found by the last call to advance.
+         * @param index is a number below the result of advance, intervals are in ascending list order.
+         * @return the list index of the interval.
+         */
+        int getId(final int index) {
+            return ids[active[index]];
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bit-parallel (Shift-And) matcher for DNA patterns with IUPAC codes. For every character a mask holds the pattern
+ * positions it can match, so each base costs a shift, an or and an and. The pattern and its reverse complement are
+ * matched in the same pass, which finds the sites on both strands. Patterns longer than 64 bases do not fit in one
+ * long and are compared position by position with the same masks.
+ *
+ * Characters that are not IUPAC codes only match themselves, as in the sequence. All occurrences are reported,
+ * including overlapping ones. The sites are returned chunk by chunk in start order, long sequences are scanned in
+ * parallel on a ForkJoinPool a few chunks ahead of the reader.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class IupacMatcher {
+
+    /**
+     * @param CODES contains the IUPAC nucleotide codes.
+     */
+    private static final String CODES = "ACGTRYSWKMBDHVN";
+
+    /**
+     * @param CODE_BASES contains the bases matched by each code in CODES.
+     */
+    private static final String[] CODE_BASES = {"A", "C", "G", "T", "AG", "CT", "GC", "AT", "GT", "AC", "CGT", "AGT",
+        "ACT", "ACG", "ACGT"};
+
+    /**
+     * @param CODE_COMPLEMENTS contains the complement of each code in CODES.
+     */
+    private static final String CODE_COMPLEMENTS = "TGCAYRSWMKVHDBN";
+
+    /**
+     * @param BLOCK_SIZE is the number of bases decoded from the sequence at a time.
+     */
+    private static final int BLOCK_SIZE = 8192;
+
+    /**
+     * @param CHUNK_SIZE is the number of start positions scanned by one task.
+     */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * @param FIRST_CHUNK_SIZE is the number of start positions of the first chunk, the chunks double up to CHUNK_SIZE.
+     */
+    static final int FIRST_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * @param PARALLEL_THRESHOLD is the sequence length below which the sequence is scanned serially.
+     */
+    static final int PARALLEL_THRESHOLD = 2 * CHUNK_SIZE;
+
+    /**
+     * @param pattern is the upper case pattern.
+     */
+    private final String pattern;
+
+    /**
+     * @param palindrome is true when the pattern equals its reverse complement.
+     */
+    private final boolean palindrome;
+
+    /**
+     * @param forwardMasks contains per 64 pattern positions and per character the positions it matches.
+     */
+    private final long[][] forwardMasks;
+
+    /**
+     * @param reverseMasks contains the masks of the reverse complement of the pattern.
+     */
+    private final long[][] reverseMasks;
+
+    /**
+     * Constructor for a matcher.
+     * @param pattern is the pattern, IUPAC codes must be upper case.
+     */
+    IupacMatcher(final String pattern) {
+        this.pattern = pattern;
+        String reverse = reverseComplement(pattern);
+        this.palindrome = reverse.equals(pattern);
+        this.forwardMasks = masks(pattern);
+        this.reverseMasks = masks(reverse);
+    }
+
+    /**
+     * Get the reverse complement of a pattern or sequence, non IUPAC characters are kept as they are.
+     * @param sequence is the upper case sequence.
+     * @return the reverse complement.
+     */
+    static String reverseComplement(final CharSequence sequence) {
+        char[] reverse = new char[sequence.length()];
+        for (int i = 0; i < reverse.length; i++) {
+            char c = sequence.charAt(sequence.length() - 1 - i);
+            int code = CODES.indexOf(c);
+            reverse[i] = code < 0 ? c : CODE_COMPLEMENTS.charAt(code);
+        }
+        return new String(reverse);
+    }
+
+    /**
+     * Build the match masks of a pattern.
+     * @param text is the pattern.
+     * @return masks per 64 positions, indexed by character.
+     */
+    private static long[][] masks(final String text) {
+        long[][] masks = new long[(text.length() + 63) >>> 6][128];
+        for (int j = 0; j < text.length(); j++) {
+            char c = text.charAt(j);
+            int code = CODES.indexOf(c);
+            String bases = code < 0 ? String.valueOf(c) : CODE_BASES[code];
+            for (int b = 0; b < bases.length(); b++) {
+                if (bases.charAt(b) < 128) {
+                    masks[j >>> 6][bases.charAt(b)] |= 1L << (j & 63);
+                }
+            }
+        }
+        return masks;
+    }
+
+    /**
+     * Get the pattern length.
+     * @return length.
+     */
+    int length() {
+        return pattern.length();
+    }
+
+    /**
+     * Check if the pattern is its own reverse complement. Hits of a palindrome are reported once, as forward hits.
+     * @return true for a palindrome.
+     */
+    boolean isPalindrome() {
+        return palindrome;
+    }
+
+    /**
+     * Find the sites that start in a range of the sequence.
+     * @param sequence is the sequence to search.
+     * @param from is the lowest start position (0 based).
+     * @param to is the position after the highest start position.
+     * @param hits receives the sites in ascending start order, forward before reverse.
+     */
+    void scan(final PackedSequence sequence, final int from, final int to, final Hits hits) {
+        int m = pattern.length();
+        int end = (int) Math.min((long) to + m - 1, sequence.length());
+        if (m == 0 || from >= end) {
+            return;
+        }
+        if (m > 64) {
+            scanLong(sequence, from, end, hits);
+            return;
+        }
+
+        long[] forward = forwardMasks[0];
+        long[] reverse = reverseMasks[0];
+        long hit = 1L << (m - 1);
+        long forwardState = 0;
+        long reverseState = 0;
+        char[] block = new char[Math.min(BLOCK_SIZE, end - from)];
+        for (int blockStart = from; blockStart < end; blockStart += block.length) {
+            int blockEnd = Math.min(end, blockStart + block.length);
+            sequence.getChars(blockStart, blockEnd, block, 0);
+            for (int k = 0; k < blockEnd - blockStart; k++) {
+                char c = block[k];
+                int index = c < 128 ? c : 0;
+                forwardState = (forwardState << 1 | 1) & forward[index];
+                reverseState = (reverseState << 1 | 1) & reverse[index];
+                if (((forwardState | reverseState) & hit) != 0) {
+                    int start = blockStart + k - m + 1;
+                    if ((forwardState & hit) != 0) {
+                        hits.add(start, false);
+                    }
+                    if (!palindrome && (reverseState & hit) != 0) {
+                        hits.add(start, true);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the sites of the sequence chunk by chunk, in start order.
+     * @param sequence is the sequence to search.
+     * @param pool is the pool for parallel scanning, null to scan serially.
+     * @return Chunks that returns the sites of each chunk in turn.
+     */
+    Chunks scanChunks(final PackedSequence sequence, final ForkJoinPool pool) {
+        return new Chunks(sequence, pool);
+    }
+
+    /**
+     * Find the sites of a pattern longer than 64 bases by comparing every start position.
+     * @param sequence is the sequence to search.
+     * @param from is the lowest start position.
+     * @param end is the position after the last base that is read.
+     * @param hits receives the sites.
+     */
+    private void scanLong(final PackedSequence sequence, final int from, final int end, final Hits hits) {
+        int m = pattern.length();
+        char[] bases = new char[end - from];
+        sequence.getChars(from, end, bases, 0);
+        for (int start = 0; start + m <= bases.length; start++) {
+            if (matches(forwardMasks, bases, start)) {
+                hits.add(from + start, false);
+            }
+            if (!palindrome && matches(reverseMasks, bases, start)) {
+                hits.add(from + start, true);
+            }
+        }
+    }
+
+    /**
+     * Check if the pattern of the masks matches at a position.
+     * @param masks are the pattern masks.
+     * @param bases contains the sequence.
+     * @param start is the start position in bases.
+     * @return true on a match.
+     */
+    private boolean matches(final long[][] masks, final char[] bases, final int start) {
+        for (int j = 0; j < pattern.length(); j++) {
+            char c = bases[start + j];
+            if ((masks[j >>> 6][c < 128 ? c : 0] & 1L << (j & 63)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Growable list of sites: a 0 based start position and a strand per site.
+     */
+    static final class Hits {
+
+        /**
+         * @param positions contains the start position of each site.
+         */
+        private int[] positions = new int[64];
+
+        /**
+         * @param reverse contains true for each site on the reverse strand.
+         */
+        private boolean[] reverse = new boolean[64];
+
+        /**
+         * @param size is the number of sites.
+         */
+        private int size;
+
+        /**
+         * Add a site.
+         * @param position is the 0 based start position on the forward strand.
+         * @param onReverse is true for a site on the reverse strand.
+         */
+        void add(final int position, final boolean onReverse) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                reverse = Arrays.copyOf(reverse, size * 2);
+            }
+            positions[size] = position;
+            reverse[size] = onReverse;
+            size++;
+        }
+
+        /**
+         * Get the number of sites.
+         * @return size.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Get the start position of a site.
+         * @param index is the site index.
+         * @return the 0 based start position.
+         */
+        int getPosition(final int index) {
+            return positions[index];
+        }
+
+        /**
+         * Check if a site is on the reverse strand.
+         * @param index is the site index.
+         * @return true for the reverse strand.
+         */
+        boolean isReverse(final int index) {
+            return reverse[index];
+        }
+    }
+
+    /**
+     * The sites of a sequence, one chunk of start positions at a time. The first chunk is small, so its sites are
+     * there soon even for a pattern that matches everywhere, and the chunks double up to CHUNK_SIZE. On a pool the
+     * next chunks are scanned ahead, at most one per worker thread, so the sites of a chunk can be written while the
+     * following chunks are scanned and never more than a few chunks of sites are held. The scan stops between chunks
+     * when the thread that reads the chunks is interrupted.
+     */
+    final class Chunks {
+
+        /**
+         * @param sequence is the sequence to search.
+         */
+        private final PackedSequence sequence;
+
+        /**
+         * @param pool scans the chunks ahead, null to scan each chunk when it is asked for.
+         */
+        private final ForkJoinPool pool;
+
+        /**
+         * @param pending contains the chunks that are scanned ahead, in start order.
+         */
+        private final ArrayDeque<ScanTask> pending = new ArrayDeque<>();
+
+        /**
+         * @param next is the first start position that has not been handed to a chunk yet.
+         */
+        private int next;
+
+        /**
+         * @param chunkSize is the number of start positions of the next chunk.
+         */
+        private int chunkSize = FIRST_CHUNK_SIZE;
+
+        /**
+         * Constructor for the chunks of a sequence, only created by scanChunks.
+         * @param sequence is the sequence to search.
+         * @param pool is the pool for parallel scanning, null to scan serially.
+         */
+        private Chunks(final PackedSequence sequence, final ForkJoinPool pool) {
+            this.sequence = sequence;
+            this.pool = pool == null || sequence.length() < PARALLEL_THRESHOLD ? null : pool;
+        }
+
+        /**
+         * Get the sites of the next chunk.
+         * @return Hits of the chunk in ascending start order, forward before reverse, or null after the last chunk.
+         * @throws InterruptedIOException when the thread is interrupted, the chunks that are scanned ahead are
+         * cancelled.
+         */
+        Hits next() throws InterruptedIOException {
+            if (Thread.currentThread().isInterrupted()) {
+                cancel();
+                throw new InterruptedIOException("The site scan has been cancelled.");
+            }
+            if (pool == null) {
+                if (next >= sequence.length()) {
+                    return null;
+                }
+                Hits hits = new Hits();
+                int to = nextChunkEnd();
+                scan(sequence, next, to, hits);
+                next = to;
+                return hits;
+            }
+
+            /* A task reports the sites starting in its chunk and reads m - 1 bases on, so seam sites are found once. */
+            while (pending.size() <= pool.getParallelism() && next < sequence.length()) {
+                ScanTask task = new ScanTask(sequence, next, nextChunkEnd());
+                pool.execute(task);
+                pending.add(task);
+                next = task.to;
+            }
+            ScanTask task = pending.poll();
+            if (task == null) {
+                return null;
+            }
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new InterruptedIOException("The site scan has been cancelled.");
+            } catch (ExecutionException e) {
+                cancel();
+                throw new IllegalStateException("The site scan failed.", e.getCause());
+            }
+        }
+
+        /**
+         * Get the end of the next chunk and double the chunk size up to CHUNK_SIZE.
+         * @return the position after the highest start position of the next chunk.
+         */
+        private int nextChunkEnd() {
+            int end = (int) Math.min(sequence.length(), (long) next + chunkSize);
+            chunkSize = Math.min(CHUNK_SIZE, chunkSize * 2);
+            return end;
+        }
+
+        /**
+         * Stop the scan, the chunks that are scanned ahead are cancelled.
+         */
+        void cancel() {
+            for (ScanTask task : pending) {
+                task.cancel(false);
+            }
+            pending.clear();
+            next = sequence.length();
+        }
+    }
+
+    /**
+     * Task that scans one chunk of the sequence.
+     */
+    private final class ScanTask extends RecursiveTask<Hits> {
+
+        /**
+         * @param serialVersionUID is the version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param sequence is the sequence to search.
+         */
+        private final PackedSequence sequence;
+
+        /**
+         * @param from is the lowest start position of the chunk.
+         */
+        private final int from;
+
+        /**
+         * @param to is the position after the highest start position of the chunk.
+         */
+        private final int to;
+
+        /**
+         * Constructor for a scan task.
+         * @param sequence is the sequence to search.
+         * @param from is the lowest start position of the chunk.
+         * @param to is the position after the highest start position of the chunk.
+         */
+        private ScanTask(final PackedSequence sequence, final int from, final int to) {
+            this.sequence = sequence;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Hits compute() {
+            Hits hits = new Hits();
+            scan(sequence, from, to, hits);
+            return hits;
+        }
+    }
+}
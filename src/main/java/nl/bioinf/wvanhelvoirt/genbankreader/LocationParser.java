@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.util.Arrays;
+
+/**
+ * Hand-written tokenizer for feature locations such as complement(join(&lt;1..10,20..&gt;30)). Segments are written
+ * into reusable primitive arrays in biological order: a complement reverses the order of its segments and flips
+ * their strand. Only features with more than one segment get their own segment arrays, a plain range is stored as
+ * first and last coordinate. A join across the origin of a circular sequence, such as join(9000..9999,1..100), keeps
+ * its wrap in a first coordinate that is higher than the last one.
+ *
+ * Supported are ranges (a..b), single bases (a), sites between bases (a^b), uncertain bases (a.b), the partial
+ * markers &lt; and &gt;, complement, join, order and nested combinations. Segments on other entries (J00194.1:1..9)
+ * and gap() are skipped. A parser instance is not thread safe.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class LocationParser {
+
+    /**
+     * @param text is the location that is parsed.
+     */
+    private CharSequence text;
+
+    /**
+     * @param index is the next unread index in text.
+     */
+    private int index;
+
+    /**
+     * @param starts contains the start of each segment.
+     */
+    private int[] starts = new int[8];
+
+    /**
+     * @param ends contains the end of each segment.
+     */
+    private int[] ends = new int[8];
+
+    /**
+     * @param reverse contains the strand of each segment, true for the complementary strand.
+     */
+    private boolean[] reverse = new boolean[8];
+
+    /**
+     * @param count is the number of segments.
+     */
+    private int count;
+
+    /**
+     * @param partialStart is true when the location contains a &lt; marker.
+     */
+    private boolean partialStart;
+
+    /**
+     * @param partialEnd is true when the location contains a &gt; marker.
+     */
+    private boolean partialEnd;
+
+    /**
+     * Parse a location.
+     * @param location contains the location text without white space.
+     * @return Coordinates object or null when the location contains no position on this entry.
+     */
+    Coordinates parse(final CharSequence location) {
+        text = location;
+        index = 0;
+        count = 0;
+        partialStart = false;
+        partialEnd = false;
+
+        if (!parseLocation() || index != text.length()) {
+            return fallback(location);
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        /* Overall first and last coordinate are the lowest and highest position of all segments. A location across
+           the origin of a circular sequence keeps its wrap: first is then the start of the part at the end of the
+           sequence and last the end of the part at its start, so first is higher than last. */
+        int first = starts[0];
+        int last = ends[0];
+        for (int i = 1; i < count; i++) {
+            first = Math.min(first, starts[i]);
+            last = Math.max(last, ends[i]);
+        }
+        int wrap = findWrap();
+        if (wrap > 0) {
+            int highFrom = reverse[0] ? wrap : 0;
+            int highTo = reverse[0] ? count : wrap;
+            int wrapFirst = Integer.MAX_VALUE;
+            int wrapLast = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                if (i >= highFrom && i < highTo) {
+                    wrapFirst = Math.min(wrapFirst, starts[i]);
+                } else {
+                    wrapLast = Math.max(wrapLast, ends[i]);
+                }
+            }
+            if (wrapLast < wrapFirst) {
+                first = wrapFirst;
+                last = wrapLast;
+            }
+        }
+        if (count == 1) {
+            return new Coordinates(first, last, partialStart, partialEnd);
+        }
+        return new Coordinates(first, last, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count),
+                Arrays.copyOf(reverse, count), partialStart, partialEnd);
+    }
+
+    /**
+     * Get the strand of the last parsed location. A location with segments on both strands, such as a trans-spliced
+     * gene, is not forced onto one of them.
+     * @return FORWARD or REVERSE when all segments are on that strand, else MIXED.
+     */
+    SequenceOrientation getDirection() {
+        boolean forward = false;
+        boolean complementary = false;
+        for (int i = 0; i < count; i++) {
+            forward |= !reverse[i];
+            complementary |= reverse[i];
+        }
+        if (forward && complementary) {
+            return SequenceOrientation.MIXED;
+        }
+        return complementary ? SequenceOrientation.REVERSE : SequenceOrientation.FORWARD;
+    }
+
+    /**
+     * Find where the segments of the last parsed location cross the origin. In biological order the segments of a
+     * strand go up on the forward strand and down on the complementary strand, a location across the origin turns
+     * back exactly once.
+     * @return index of the first segment after the origin, 0 when the location does not cross it.
+     */
+    private int findWrap() {
+        if (count < 2 || getDirection() == SequenceOrientation.MIXED) {
+            return 0;
+        }
+        boolean down = reverse[0];
+        int wrap = 0;
+        for (int i = 1; i < count; i++) {
+            if (down ? starts[i] > starts[i - 1] : starts[i] < starts[i - 1]) {
+                if (wrap > 0) {
+                    return 0;
+                }
+                wrap = i;
+            }
+        }
+        return wrap;
+    }
+
+    /**
+     * Parse one location term.
+     * @return false when the text is not a valid location.
+     */
+    private boolean parseLocation() {
+        if (match("complement(")) {
+            int from = count;
+            if (!parseLocation() || !match(")")) {
+                return false;
+            }
+            complement(from);
+            return true;
+        }
+        if (match("join(") || match("order(") || match("bond(")) {
+            if (!parseLocation()) {
+                return false;
+            }
+            while (match(",")) {
+                if (!parseLocation()) {
+                    return false;
+                }
+            }
+            return match(")");
+        }
+        if (match("gap(")) {
+            while (index < text.length() && text.charAt(index) != ')') {
+                index++;
+            }
+            return match(")");
+        }
+        return parseRange();
+    }
+
+    /**
+     * Parse a range, single base or site, optionally preceded by a reference to another entry.
+     * @return false when the text is not a valid range.
+     */
+    private boolean parseRange() {
+
+        /* A reference to another entry (ACCESSION.VERSION:range) is parsed but not stored. */
+        boolean remote = false;
+        int colon = index;
+        while (colon < text.length() && text.charAt(colon) != ':' && text.charAt(colon) != ','
+                && text.charAt(colon) != ')') {
+            colon++;
+        }
+        if (colon < text.length() && text.charAt(colon) == ':') {
+            remote = true;
+            index = colon + 1;
+        }
+
+        int start = parsePosition();
+        if (start < 0) {
+            return false;
+        }
+        int end = start;
+        if (match("..")) {
+            end = parsePosition();
+        } else if (match("^") || match(".")) {
+            end = parsePosition();
+        }
+        if (end < 0) {
+            return false;
+        }
+        if (!remote) {
+            addSegment(Math.min(start, end), Math.max(start, end));
+        }
+        return true;
+    }
+
+    /**
+     * Parse a position with an optional partial marker.
+     * @return the position or -1 when there is no number.
+     */
+    private int parsePosition() {
+        if (match("<")) {
+            partialStart = true;
+        } else if (match(">")) {
+            partialEnd = true;
+        }
+        int value = -1;
+        while (index < text.length() && text.charAt(index) >= '0' && text.charAt(index) <= '9') {
+            value = (value < 0 ? 0 : value * 10) + (text.charAt(index) - '0');
+            index++;
+        }
+        if (match(">")) {
+            partialEnd = true;
+        }
+        return value;
+    }
+
+    /**
+     * Add a segment on the forward strand.
+     * @param start is the first base.
+     * @param end is the last base.
+     */
+    private void addSegment(final int start, final int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            reverse = Arrays.copyOf(reverse, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        reverse[count] = false;
+        count++;
+    }
+
+    /**
+     * Complement the segments from index from: reverse their order and flip their strand.
+     * @param from is the first segment inside the complement.
+     */
+    private void complement(final int from) {
+        for (int i = from, j = count - 1; i < j; i++, j--) {
+            int start = starts[i];
+            starts[i] = starts[j];
+            starts[j] = start;
+            int end = ends[i];
+            ends[i] = ends[j];
+            ends[j] = end;
+            boolean strand = reverse[i];
+            reverse[i] = reverse[j];
+            reverse[j] = strand;
+        }
+        for (int i = from; i < count; i++) {
+            reverse[i] = !reverse[i];
+        }
+    }
+
+    /**
+     * Consume the given token when it is next in the text.
+     * @param token is the expected text.
+     * @return true when the token was consumed.
+     */
+    private boolean match(final String token) {
+        if (GenBankText.startsWith(text, index, token)) {
+            index += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Create coordinates from the first and last number of a location that could not be parsed.
+     * @param location contains the location text.
+     * @return Coordinates object or null when the location contains no numbers.
+     */
+    private Coordinates fallback(final CharSequence location) {
+        long first = -1;
+        long current = -1;
+        long last = -1;
+        count = 0;
+        for (int i = 0; i <= location.length(); i++) {
+            char c = i < location.length() ? location.charAt(i) : ' ';
+            if (c >= '0' && c <= '9') {
+                current = (current < 0 ? 0 : current * 10) + (c - '0');
+            } else if (current >= 0) {
+                if (first < 0) {
+                    first = current;
+                }
+                last = current;
+                current = -1;
+            }
+        }
+        if (first < 0) {
+            return null;
+        }
+        addSegment((int) first, (int) last);
+        reverse[0] = GenBankText.indexOf(location, "complement", 0) >= 0;
+        return new Coordinates(first, last, partialStart, partialEnd);
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Searches a set of named IUPAC motifs, such as a panel of restriction enzymes, in one pass over a sequence. Every
+ * motif and its reverse complement are expanded to plain ACGT words, which are combined in one Aho-Corasick
+ * automaton. The automaton is a dense table with one transition per base, so the scan reads each base once for all
+ * motifs. Motifs with too many expansions are searched separately with an IupacMatcher.
+ *
+ * Motifs are given as a comma separated list. An item is a built-in enzyme name (EcoRI), the word panel for all
+ * built-in enzymes, a named motif (name=GAATTC) or a bare motif. A ^ in a motif marks the cut position.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class MotifDigest {
+
+    /**
+     * @param PANEL contains the built-in restriction enzymes and their recognition sites with cut position.
+     */
+    private static final Map<String, String> PANEL = new LinkedHashMap<>();
+
+    static {
+        PANEL.put("AluI", "AG^CT");
+        PANEL.put("ApaI", "GGGCC^C");
+        PANEL.put("BamHI", "G^GATCC");
+        PANEL.put("BglI", "GCCNNNN^NGGC");
+        PANEL.put("BglII", "A^GATCT");
+        PANEL.put("ClaI", "AT^CGAT");
+        PANEL.put("DpnII", "^GATC");
+        PANEL.put("EcoRI", "G^AATTC");
+        PANEL.put("EcoRV", "GAT^ATC");
+        PANEL.put("HaeIII", "GG^CC");
+        PANEL.put("HindIII", "A^AGCTT");
+        PANEL.put("HinfI", "G^ANTC");
+        PANEL.put("KpnI", "GGTAC^C");
+        PANEL.put("MluI", "A^CGCGT");
+        PANEL.put("NcoI", "C^CATGG");
+        PANEL.put("NdeI", "CA^TATG");
+        PANEL.put("NheI", "G^CTAGC");
+        PANEL.put("NotI", "GC^GGCCGC");
+        PANEL.put("PstI", "CTGCA^G");
+        PANEL.put("SacI", "GAGCT^C");
+        PANEL.put("SalI", "G^TCGAC");
+        PANEL.put("SmaI", "CCC^GGG");
+        PANEL.put("SpeI", "A^CTAGT");
+        PANEL.put("TaqI", "T^CGA");
+        PANEL.put("XbaI", "T^CTAGA");
+        PANEL.put("XhoI", "C^TCGAG");
+    }
+
+    /**
+     * @param PANEL_KEYWORD selects all built-in enzymes.
+     */
+    static final String PANEL_KEYWORD = "panel";
+
+    /**
+     * @param MAX_EXPANSIONS is the highest number of ACGT words a motif strand may add to the automaton.
+     */
+    private static final int MAX_EXPANSIONS = 4096;
+
+    /**
+     * @param BLOCK_SIZE is the number of bases decoded from the sequence at a time.
+     */
+    private static final int BLOCK_SIZE = 8192;
+
+    /**
+     * @param names contains the name of each motif.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * @param sites contains the upper case IUPAC site of each motif, without cut mark.
+     */
+    private final List<String> sites = new ArrayList<>();
+
+    /**
+     * @param cuts contains the cut offset in the site of each motif.
+     */
+    private final List<Integer> cuts = new ArrayList<>();
+
+    /**
+     * Parse a motif list.
+     * @param motifs is a comma separated list of enzyme names, the panel keyword, name=site items or sites.
+     * @throws IllegalArgumentException when an item is not an enzyme name or valid motif.
+     */
+    MotifDigest(final String motifs) {
+        for (String item : motifs.split(",")) {
+            String motif = item.trim();
+            if (motif.isEmpty()) {
+                continue;
+            }
+            if (motif.equalsIgnoreCase(PANEL_KEYWORD)) {
+                for (Map.Entry<String, String> enzyme : PANEL.entrySet()) {
+                    add(enzyme.getKey(), enzyme.getValue());
+                }
+            } else if (motif.indexOf('=') >= 0) {
+                add(motif.substring(0, motif.indexOf('=')).trim(), motif.substring(motif.indexOf('=') + 1).trim());
+            } else {
+                String enzyme = findEnzyme(motif);
+                if (enzyme != null) {
+                    add(enzyme, PANEL.get(enzyme));
+                } else {
+                    add(motif.toUpperCase(), motif);
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("No motifs were given.");
+        }
+    }
+
+    /**
+     * Get the names of the built-in enzymes.
+     * @return enzyme names in panel order.
+     */
+    static List<String> getPanelNames() {
+        return new ArrayList<>(PANEL.keySet());
+    }
+
+    /**
+     * Find a built-in enzyme, ignoring case.
+     * @param name is the enzyme name.
+     * @return the panel name or null.
+     */
+    private static String findEnzyme(final String name) {
+        for (String enzyme : PANEL.keySet()) {
+            if (enzyme.equalsIgnoreCase(name)) {
+                return enzyme;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a motif, a motif name that is already present is skipped.
+     * @param name is the motif name.
+     * @param site is the IUPAC site with an optional ^ cut mark.
+     */
+    private void add(final String name, final String site) {
+        String upper = site.toUpperCase();
+        if (!upper.matches("[ACGTRYSWKMBDHVN]*\\^?[ACGTRYSWKMBDHVN]*") || upper.replace("^", "").isEmpty()) {
+            throw new IllegalArgumentException("'" + site + "' is not an enzyme name or a motif of IUPAC codes.");
+        }
+        if (names.contains(name)) {
+            return;
+        }
+        names.add(name);
+        sites.add(upper.replace("^", ""));
+        cuts.add(Math.max(upper.indexOf('^'), 0));
+    }
+
+    /**
+     * Get the number of motifs.
+     * @return motif count.
+     */
+    int size() {
+        return names.size();
+    }
+
+    /**
+     * Get the name of a motif.
+     * @param motif is the motif index.
+     * @return name.
+     */
+    String getName(final int motif) {
+        return names.get(motif);
+    }
+
+    /**
+     * Get the site of a motif.
+     * @param motif is the motif index.
+     * @return IUPAC site without cut mark.
+     */
+    String getSite(final int motif) {
+        return sites.get(motif);
+    }
+
+    /**
+     * Get the position of the cut on the forward strand for a site.
+     * @param motif is the motif index.
+     * @param position is the 0 based start of the site.
+     * @param reverse is true for a site on the reverse strand.
+     * @return the 0 based position of the first base after the cut.
+     */
+    int getCutPosition(final int motif, final int position, final boolean reverse) {
+        return reverse ? position + sites.get(motif).length() - cuts.get(motif) : position + cuts.get(motif);
+    }
+
+    /**
+     * Check if a motif is its own reverse complement.
+     * @param motif is the motif index.
+     * @return true for a palindrome.
+     */
+    boolean isPalindrome(final int motif) {
+        return IupacMatcher.reverseComplement(sites.get(motif)).equals(sites.get(motif));
+    }
+
+    /**
+     * Get the motifs as name=site items separated by commas, the site has ^ at the cut.
+     * @return the motif list, it gives the same motifs when it is parsed again.
+     */
+    @Override
+    public String toString() {
+        StringBuilder motifs = new StringBuilder();
+        for (int motif = 0; motif < names.size(); motif++) {
+            String site = sites.get(motif);
+            motifs.append(motif == 0 ? "" : ",").append(names.get(motif)).append('=')
+                    .append(site, 0, cuts.get(motif)).append('^').append(site, cuts.get(motif), site.length());
+        }
+        return motifs.toString();
+    }
+
+    /**
+     * Find the sites of all motifs in a sequence.
+     * @param sequence is the sequence to search.
+     * @return the sites of each motif, in ascending order. Sites of palindromes are reported as forward sites.
+     */
+    IupacMatcher.Hits[] scan(final PackedSequence sequence) {
+        IupacMatcher.Hits[] hits = new IupacMatcher.Hits[names.size()];
+        Automaton automaton = new Automaton();
+        for (int motif = 0; motif < names.size(); motif++) {
+            hits[motif] = new IupacMatcher.Hits();
+            String site = sites.get(motif);
+            List<String> forward = expand(site);
+            List<String> reverse = isPalindrome(motif) ? new ArrayList<String>()
+                    : expand(IupacMatcher.reverseComplement(site));
+            if (forward == null || reverse == null) {
+
+                /* Too degenerate for the automaton, search this motif on its own. */
+                new IupacMatcher(site).scan(sequence, 0, sequence.length(), hits[motif]);
+                continue;
+            }
+            for (String word : forward) {
+                automaton.add(word, motif << 1);
+            }
+            for (String word : reverse) {
+                automaton.add(word, motif << 1 | 1);
+            }
+        }
+        automaton.build();
+        automaton.scan(sequence, hits, this);
+        return hits;
+    }
+
+    /**
+     * Expand an IUPAC site to all ACGT words it matches.
+     * @param site is the upper case site.
+     * @return the words or null when there are more than MAX_EXPANSIONS.
+     */
+    private static List<String> expand(final String site) {
+        List<String> words = new ArrayList<>();
+        words.add("");
+        for (int i = 0; i < site.length(); i++) {
+            String bases = bases(site.charAt(i));
+            if ((long) words.size() * bases.length() > MAX_EXPANSIONS) {
+                return null;
+            }
+            List<String> next = new ArrayList<>(words.size() * bases.length());
+            for (String word : words) {
+                for (int b = 0; b < bases.length(); b++) {
+                    next.add(word + bases.charAt(b));
+                }
+            }
+            words = next;
+        }
+        return words;
+    }
+
+    /**
+     * Get the bases matched by an IUPAC code.
+     * @param code is the upper case code.
+     * @return the bases.
+     */
+    private static String bases(final char code) {
+        switch (code) {
+            case 'R': return "AG";
+            case 'Y': return "CT";
+            case 'S': return "GC";
+            case 'W': return "AT";
+            case 'K': return "GT";
+            case 'M': return "AC";
+            case 'B': return "CGT";
+            case 'D': return "AGT";
+            case 'H': return "ACT";
+            case 'V': return "ACG";
+            case 'N': return "ACGT";
+            default: return String.valueOf(code);
+        }
+    }
+
+    /**
+     * Get the 2 bit code of a base.
+     * @param base is the upper case base.
+     * @return 0 to 3 for A, C, G and T, -1 for other characters.
+     */
+    private static int code(final char base) {
+        switch (base) {
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton over ACGT words. Each word carries an output value: the motif index shifted left by one,
+     * with the lowest bit set for reverse strand words.
+     */
+    private static final class Automaton {
+
+        /**
+         * @param next contains four transitions per state, -1 for a missing trie edge until the automaton is built.
+         */
+        private int[] next = new int[64];
+
+        /**
+         * @param depths contains the word length of each state.
+         */
+        private int[] depths = new int[16];
+
+        /**
+         * @param outputs contains the output values of the words that end in each state.
+         */
+        private int[][] outputs = new int[16][];
+
+        /**
+         * @param stateCount is the number of states.
+         */
+        private int stateCount;
+
+        /**
+         * Constructor for an automaton with only the root state.
+         */
+        private Automaton() {
+            newState(0);
+        }
+
+        /**
+         * Add a state.
+         * @param depth is the word length of the state.
+         * @return the state index.
+         */
+        private int newState(final int depth) {
+            if (stateCount == depths.length) {
+                depths = Arrays.copyOf(depths, stateCount * 2);
+                outputs = Arrays.copyOf(outputs, stateCount * 2);
+                next = Arrays.copyOf(next, stateCount * 8);
+            }
+            Arrays.fill(next, stateCount * 4, stateCount * 4 + 4, -1);
+            depths[stateCount] = depth;
+            outputs[stateCount] = new int[0];
+            return stateCount++;
+        }
+
+        /**
+         * Add a word to the trie.
+         * @param word is the ACGT word.
+         * @param output is the output value of the word.
+         */
+        private void add(final String word, final int output) {
+            int state = 0;
+            for (int i = 0; i < word.length(); i++) {
+                int edge = state * 4 + code(word.charAt(i));
+                if (next[edge] < 0) {
+                    int child = newState(depths[state] + 1);
+                    next[edge] = child;
+                }
+                state = next[edge];
+            }
+            for (int value : outputs[state]) {
+                if (value == output) {
+                    return;
+                }
+            }
+            outputs[state] = Arrays.copyOf(outputs[state], outputs[state].length + 1);
+            outputs[state][outputs[state].length - 1] = output;
+        }
+
+        /**
+         * Turn the trie into a complete transition table. States are visited breadth first, so the failure state of
+         * a state is complete before the state itself, and its outputs are merged into the state.
+         */
+        private void build() {
+            int[] fail = new int[stateCount];
+            int[] queue = new int[stateCount];
+            int head = 0;
+            int tail = 0;
+            for (int base = 0; base < 4; base++) {
+                if (next[base] < 0) {
+                    next[base] = 0;
+                } else {
+                    fail[next[base]] = 0;
+                    queue[tail++] = next[base];
+                }
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                int[] inherited = outputs[fail[state]];
+                if (inherited.length > 0) {
+                    int[] merged = Arrays.copyOf(outputs[state], outputs[state].length + inherited.length);
+                    System.arraycopy(inherited, 0, merged, outputs[state].length, inherited.length);
+                    outputs[state] = merged;
+                }
+                for (int base = 0; base < 4; base++) {
+                    int child = next[state * 4 + base];
+                    if (child < 0) {
+                        next[state * 4 + base] = next[fail[state] * 4 + base];
+                    } else {
+                        fail[child] = next[fail[state] * 4 + base];
+                        queue[tail++] = child;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Run the automaton over a sequence, other characters than ACGT restart it at the root.
+         * @param sequence is the sequence to search.
+         * @param hits receives the sites per motif.
+         * @param digest contains the motif sites.
+         */
+        private void scan(final PackedSequence sequence, final IupacMatcher.Hits[] hits, final MotifDigest digest) {
+            char[] block = new char[Math.max(1, Math.min(BLOCK_SIZE, sequence.length()))];
+            int state = 0;
+            for (int blockStart = 0; blockStart < sequence.length(); blockStart += block.length) {
+                int blockEnd = Math.min(sequence.length(), blockStart + block.length);
+                sequence.getChars(blockStart, blockEnd, block, 0);
+                for (int k = 0; k < blockEnd - blockStart; k++) {
+                    int base = code(block[k]);
+                    if (base < 0) {
+                        state = 0;
+                        continue;
+                    }
+                    state = next[state * 4 + base];
+                    for (int output : outputs[state]) {
+                        int motif = output >>> 1;
+                        int start = blockStart + k - digest.getSite(motif).length() + 1;
+                        hits[motif].add(start, (output & 1) != 0);
+                    }
+                }
+            }
+        }
+    }
+}
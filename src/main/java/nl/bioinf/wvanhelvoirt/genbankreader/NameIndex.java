@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index on the gene names or products of a record, used to narrow the names a regex pattern has to be matched
+ * against. Literals that every match must contain are extracted from the pattern: literals of three or more
+ * characters are looked up in trigram postings, and a literal prefix after ^ in a sorted name array. The result is a
+ * candidate set, the caller still matches the pattern against each candidate, so the results equal a full scan.
+ * Patterns without a usable literal (alternation, inline flags, only classes and wildcards) need a full scan.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class NameIndex {
+
+    /**
+     * @param ARGUMENT_ESCAPES contains the escape letters that are followed by an argument, like \x41 or \p{Lu}.
+     */
+    private static final String ARGUMENT_ESCAPES = "xu0ckNpP";
+
+    /**
+     * @param sortedNames contains the names in ascending order.
+     */
+    private final String[] sortedNames;
+
+    /**
+     * @param sortedIds contains the list index of each name in sortedNames.
+     */
+    private final int[] sortedIds;
+
+    /**
+     * @param postings contains for each trigram the ascending list indices of the names that contain it.
+     */
+    private final Map<Long, int[]> postings = new HashMap<>();
+
+    /**
+     * Build an index on a list of names.
+     * @param names contains the names in list order.
+     */
+    NameIndex(final List<String> names) {
+        int n = names.size();
+
+        /* Sort the list indices by name. */
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return names.get(a).compareTo(names.get(b));
+            }
+        });
+        sortedNames = new String[n];
+        sortedIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedIds[i] = order[i];
+            sortedNames[i] = names.get(order[i]);
+        }
+
+        /* Add every name once to the postings of each of its trigrams, names are visited in list order. */
+        Map<Long, int[]> growing = new HashMap<>();
+        Map<Long, Integer> sizes = new HashMap<>();
+        for (int id = 0; id < n; id++) {
+            String name = names.get(id);
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                Long key = trigram(name, i);
+                int[] ids = growing.get(key);
+                int size = ids == null ? 0 : sizes.get(key);
+                if (size > 0 && ids[size - 1] == id) {
+                    continue;
+                }
+                if (ids == null) {
+                    ids = new int[4];
+                } else if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+                ids[size] = id;
+                growing.put(key, ids);
+                sizes.put(key, size + 1);
+            }
+        }
+        for (Map.Entry<Long, int[]> entry : growing.entrySet()) {
+            postings.put(entry.getKey(), Arrays.copyOf(entry.getValue(), sizes.get(entry.getKey())));
+        }
+    }
+
+    /**
+     * Get the names that can match a regex pattern with find().
+     * @param regex is the pattern.
+     * @return ascending list indices of the candidates, or null when every name has to be matched.
+     */
+    int[] candidates(final String regex) {
+        List<String> literals = requiredLiterals(regex);
+        if (literals == null) {
+            return null;
+        }
+        int[] candidates = null;
+
+        /* A literal directly after ^ is a prefix of every match. */
+        if (regex.startsWith("^") && !literals.isEmpty() && regex.startsWith(literals.get(0), 1)) {
+            candidates = prefixRange(literals.get(0));
+        }
+        for (String literal : literals) {
+            for (int i = 0; i + 3 <= literal.length(); i++) {
+                int[] ids = postings.get(trigram(literal, i));
+                if (ids == null) {
+                    return new int[0];
+                }
+                candidates = candidates == null ? ids : intersect(candidates, ids);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Get the names that start with a prefix.
+     * @param prefix is the prefix.
+     * @return ascending list indices of the names.
+     */
+    private int[] prefixRange(final String prefix) {
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        int[] ids = Arrays.copyOfRange(sortedIds, from, Math.max(from, to));
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Get the first index in sortedNames with a name that is not lower than key.
+     * @param key is the name to look for.
+     * @return insertion index.
+     */
+    private int lowerBound(final String key) {
+        int low = 0;
+        int high = sortedNames.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedNames[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get the key of the trigram at an index.
+     * @param text contains the trigram.
+     * @param index is the index of its first character.
+     * @return key with the three characters.
+     */
+    private static Long trigram(final String text, final int index) {
+        return (long) text.charAt(index) << 32 | (long) text.charAt(index + 1) << 16 | text.charAt(index + 2);
+    }
+
+    /**
+     * Intersect two ascending arrays.
+     * @param a is the first array.
+     * @param b is the second array.
+     * @return ascending values in both arrays.
+     */
+    private static int[] intersect(final int[] a, final int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Extract the literal runs that every match of a regex contains, in pattern order. Groups, classes, escapes that
+     * are not punctuation and optional characters end a run. Patterns with alternation, inline flags, quoting,
+     * back references or escapes that take an argument, such as a code point or property, are not analysed.
+     * @param regex is the pattern.
+     * @return the literals, or null when the pattern can not be analysed.
+     */
+    static List<String> requiredLiterals(final String regex) {
+        if (regex.indexOf('|') >= 0 || regex.contains("\\Q")) {
+            return null;
+        }
+        for (int i = regex.indexOf('\\'); i >= 0 && i + 1 < regex.length(); i = regex.indexOf('\\', i + 2)) {
+            if (ARGUMENT_ESCAPES.indexOf(regex.charAt(i + 1)) >= 0 || Character.isDigit(regex.charAt(i + 1))) {
+                return null;
+            }
+        }
+        for (int i = regex.indexOf("(?"); i >= 0; i = regex.indexOf("(?", i + 1)) {
+            if (i + 2 < regex.length() && "=!<:".indexOf(regex.charAt(i + 2)) < 0) {
+                return null;
+            }
+        }
+
+        List<String> literals = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int atomEnd;
+            boolean literal = false;
+            char value = c;
+            if (c == '\\' && i + 1 < regex.length()) {
+                value = regex.charAt(i + 1);
+                literal = !Character.isLetterOrDigit(value);
+                atomEnd = i + 2;
+            } else if (c == '[') {
+                atomEnd = skipClass(regex, i);
+            } else if (c == '(') {
+                atomEnd = skipGroup(regex, i);
+            } else {
+                literal = ".^$".indexOf(c) < 0;
+                atomEnd = i + 1;
+            }
+            if (atomEnd < 0) {
+                return null;
+            }
+
+            /* A quantifier decides whether the atom is required. */
+            char quantifier = atomEnd < regex.length() ? regex.charAt(atomEnd) : 0;
+            int next = skipQuantifier(regex, atomEnd);
+            if (next < 0) {
+                return null;
+            }
+            if (literal && quantifier != '*' && quantifier != '?' && quantifier != '{') {
+                run.append(value);
+            }
+            if (!literal || next != atomEnd) {
+                addRun(literals, run);
+            }
+            i = next;
+        }
+        addRun(literals, run);
+        return literals;
+    }
+
+    /**
+     * Move a finished literal run to the list.
+     * @param literals is the list of literals.
+     * @param run is the run, it is cleared.
+     */
+    private static void addRun(final List<String> literals, final StringBuilder run) {
+        if (run.length() > 0) {
+            literals.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * Skip a character class.
+     * @param regex is the pattern.
+     * @param start is the index of the opening bracket.
+     * @return the index after the closing bracket or -1.
+     */
+    private static int skipClass(final String regex, final int start) {
+        int depth = 0;
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+
+                /* A closing bracket directly after the opening one is part of the class. */
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip a group including nested groups and classes.
+     * @param regex is the pattern.
+     * @param start is the index of the opening parenthesis.
+     * @return the index after the closing parenthesis or -1.
+     */
+    private static int skipGroup(final String regex, final int start) {
+        int depth = 0;
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(regex, i) - 1;
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip a quantifier and its lazy or possessive suffix.
+     * @param regex is the pattern.
+     * @param start is the index after the quantified atom.
+     * @return the index after the quantifier, start when there is none, or -1.
+     */
+    private static int skipQuantifier(final String regex, final int start) {
+        if (start >= regex.length() || "*+?{".indexOf(regex.charAt(start)) < 0) {
+            return start;
+        }
+        int end = start + 1;
+        if (regex.charAt(start) == '{') {
+            end = regex.indexOf('}', start) + 1;
+            if (end == 0) {
+                return -1;
+            }
+        }
+        if (end < regex.length() && (regex.charAt(end) == '?' || regex.charAt(end) == '+')) {
+            end++;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Nucleotide sequence stored with 2 bits per A, C, G or T base. All other characters (N and IUPAC codes) are kept in
+ * a sparse, sorted list of runs, so long stretches of N cost one entry.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+public final class PackedSequence implements CharSequence, Serializable {
+
+    /**
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param BASES contains the bases in order of their 2 bit code.
+     */
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * @param words contains the 2 bit codes, 32 bases per long.
+     */
+    private final long[] words;
+
+    /**
+     * @param length is the number of bases.
+     */
+    private final int length;
+
+    /**
+     * @param exceptionStarts contains the sorted start positions of the non ACGT runs.
+     */
+    private final int[] exceptionStarts;
+
+    /**
+     * @param exceptionEnds contains the end positions (exclusive) of the non ACGT runs.
+     */
+    private final int[] exceptionEnds;
+
+    /**
+     * @param exceptionBases contains the character of each non ACGT run.
+     */
+    private final char[] exceptionBases;
+
+    /**
+     * @param composition contains the number of A, C, G, T, N and other characters, counted while building.
+     */
+    private final int[] composition;
+
+    /**
+    * Constructor for a packed sequence, use a Builder to create one.
+    * @param words contains the 2 bit codes.
+    * @param length is the number of bases.
+    * @param exceptionStarts contains the start positions of the non ACGT runs.
+    * @param exceptionEnds contains the end positions of the non ACGT runs.
+    * @param exceptionBases contains the characters of the non ACGT runs.
+    * @param composition contains the number of A, C, G, T, N and other characters.
+    */
+    PackedSequence(final long[] words,
+            final int length,
+            final int[] exceptionStarts,
+            final int[] exceptionEnds,
+            final char[] exceptionBases,
+            final int[] composition) {
+
+        this.words = words;
+        this.length = length;
+        this.exceptionStarts = exceptionStarts;
+        this.exceptionEnds = exceptionEnds;
+        this.exceptionBases = exceptionBases;
+        this.composition = composition;
+    }
+
+    /**
+    * Create a packed sequence from a sequence string.
+    * @param sequence contains the bases.
+    * @return PackedSequence with the upper case bases of sequence.
+    */
+    public static PackedSequence of(final CharSequence sequence) {
+        Builder builder = new Builder(sequence.length());
+        for (int i = 0; i < sequence.length(); i++) {
+            builder.append(Character.toUpperCase(sequence.charAt(i)));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside sequence of length " + length + ".");
+        }
+
+        /* Non ACGT runs take precedence over the 2 bit code. */
+        if (exceptionStarts.length > 0) {
+            int run = findRun(index);
+            if (run >= 0) {
+                return exceptionBases[run];
+            }
+        }
+        return BASES[(int) (words[index >>> 5] >>> ((index & 31) << 1)) & 3];
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " is outside sequence of length "
+                    + length + ".");
+        }
+        char[] bases = new char[end - start];
+        getChars(start, end, bases, 0);
+        return new String(bases);
+    }
+
+    /**
+    * Get a view on a range of the forward strand, no bases are copied.
+    * @param start is the first position of the range.
+    * @param end is the position after the range.
+    * @return SequenceView on the range, use reverseComplement for the other strand.
+    */
+    public SequenceView view(final int start, final int end) {
+        return new SequenceView(this, start, end, false);
+    }
+
+    /**
+    * Decode a range of bases into a char array, a word of 32 bases at a time.
+    * @param start is the first position to decode.
+    * @param end is the position after the last one to decode.
+    * @param target is the array to decode into.
+    * @param offset is the index in target for the base at start.
+    */
+    public void getChars(final int start, final int end, final char[] target, final int offset) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " is outside sequence of length "
+                    + length + ".");
+        }
+        int i = start;
+        while (i < end) {
+            long word = words[i >>> 5] >>> ((i & 31) << 1);
+            int wordEnd = Math.min(end, (i | 31) + 1);
+            for (; i < wordEnd; i++) {
+                target[offset + i - start] = BASES[(int) word & 3];
+                word >>>= 2;
+            }
+        }
+
+        /* Overwrite the positions of the non ACGT runs in the range. */
+        int run = Arrays.binarySearch(exceptionStarts, start);
+        if (run < 0) {
+            run = Math.max(-run - 2, 0);
+        }
+        for (; run < exceptionStarts.length && exceptionStarts[run] < end; run++) {
+            for (int j = Math.max(start, exceptionStarts[run]); j < Math.min(end, exceptionEnds[run]); j++) {
+                target[offset + j - start] = exceptionBases[run];
+            }
+        }
+    }
+
+    /**
+    * Get the number of non ACGT runs.
+    * @return number of runs.
+    */
+    public int getExceptionCount() {
+        return exceptionStarts.length;
+    }
+
+    /**
+    * Get the approximate number of bytes used by this sequence.
+    * @return size in bytes.
+    */
+    public long getSizeInBytes() {
+        return 8L * words.length + 10L * exceptionStarts.length + 32;
+    }
+
+    /**
+    * Get the 2 bit codes, used for writing snapshots.
+    * @return words.
+    */
+    long[] getWords() {
+        return words;
+    }
+
+    /**
+    * Get the start positions of the non ACGT runs, used for writing snapshots.
+    * @return exceptionStarts.
+    */
+    int[] getExceptionStarts() {
+        return exceptionStarts;
+    }
+
+    /**
+    * Get the end positions of the non ACGT runs, used for writing snapshots.
+    * @return exceptionEnds.
+    */
+    int[] getExceptionEnds() {
+        return exceptionEnds;
+    }
+
+    /**
+    * Get the characters of the non ACGT runs, used for writing snapshots.
+    * @return exceptionBases.
+    */
+    char[] getExceptionBases() {
+        return exceptionBases;
+    }
+
+    /**
+    * Get the number of A, C, G, T, N and other characters, used for statistics and snapshots.
+    * @return composition.
+    */
+    int[] getComposition() {
+        return composition;
+    }
+
+    /**
+    * Find the non ACGT run that contains index.
+    * @param index is the position in the sequence.
+    * @return index of the run or -1.
+    */
+    private int findRun(final int index) {
+        int run = Arrays.binarySearch(exceptionStarts, index);
+        if (run < 0) {
+            run = -run - 2;
+        }
+        return run >= 0 && index < exceptionEnds[run] ? run : -1;
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /**
+     * Builder that packs bases while they are appended.
+     */
+    public static final class Builder {
+
+        /**
+         * @param words contains the 2 bit codes.
+         */
+        private long[] words;
+
+        /**
+         * @param length is the number of appended bases.
+         */
+        private int length;
+
+        /**
+         * @param starts contains the start positions of the non ACGT runs.
+         */
+        private int[] starts = new int[4];
+
+        /**
+         * @param ends contains the end positions of the non ACGT runs.
+         */
+        private int[] ends = new int[4];
+
+        /**
+         * @param bases contains the characters of the non ACGT runs.
+         */
+        private char[] bases = new char[4];
+
+        /**
+         * @param runs is the number of non ACGT runs.
+         */
+        private int runs;
+
+        /**
+         * @param composition contains the number of appended A, C, G, T, N and other characters.
+         */
+        private final int[] composition = new int[6];
+
+        /**
+        * Constructor for a builder.
+        * @param capacity is the expected number of bases.
+        */
+        public Builder(final int capacity) {
+            this.words = new long[Math.max(1, (capacity + 31) >>> 5)];
+        }
+
+        /**
+        * Append one upper case base.
+        * @param base is the base to append.
+        * @return this builder.
+        */
+        public Builder append(final char base) {
+            if ((length >>> 5) >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+
+            int code;
+            switch (base) {
+                case 'A': code = 0; break;
+                case 'C': code = 1; break;
+                case 'G': code = 2; break;
+                case 'T': code = 3; break;
+                default: code = -1; break;
+            }
+
+            if (code > 0) {
+                words[length >>> 5] |= (long) code << ((length & 31) << 1);
+            } else if (code < 0) {
+                addException(base);
+            }
+            composition[code >= 0 ? code : base == 'N' ? 4 : 5]++;
+            length++;
+            return this;
+        }
+
+        /**
+        * Add a non ACGT base, extends the last run when possible.
+        * @param base is the character to add.
+        */
+        private void addException(final char base) {
+            if (runs > 0 && ends[runs - 1] == length && bases[runs - 1] == base) {
+                ends[runs - 1]++;
+                return;
+            }
+            if (runs == starts.length) {
+                starts = Arrays.copyOf(starts, runs * 2);
+                ends = Arrays.copyOf(ends, runs * 2);
+                bases = Arrays.copyOf(bases, runs * 2);
+            }
+            starts[runs] = length;
+            ends[runs] = length + 1;
+            bases[runs] = base;
+            runs++;
+        }
+
+        /**
+        * Get the number of appended bases.
+        * @return length.
+        */
+        public int length() {
+            return length;
+        }
+
+        /**
+        * Create the packed sequence, arrays are trimmed to their used size. The words are only copied when the
+        * capacity was not exact, so a sequence whose LOCUS length was right is not held twice.
+        * @return PackedSequence with all appended bases.
+        */
+        public PackedSequence build() {
+            int used = (length + 31) >>> 5;
+            return new PackedSequence(words.length == used ? words : Arrays.copyOf(words, used), length,
+                    Arrays.copyOf(starts, runs), Arrays.copyOf(ends, runs), Arrays.copyOf(bases, runs),
+                    composition.clone());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.Serializable;
+
+/**
+ * The retained feature lines of a GenBank record. Features only store the offsets of their qualifier lines in this
+ * text, a qualifier value is decoded when it is first asked for. The text is one String shared by all features of
+ * the record, so it is stored once when the record is serialized.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class QualifierSource implements Serializable {
+
+    /**
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param text contains the feature lines, separated by newlines.
+     */
+    private final String text;
+
+    /**
+     * Constructor for a qualifier source.
+     * @param text contains the feature lines, separated by newlines.
+     */
+    QualifierSource(final String text) {
+        this.text = text;
+    }
+
+    /**
+     * Get text value.
+     * @return text.
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Decode the value of the first qualifier with the given name. Continuation lines are joined with a space,
+     * except for translations which are joined without one and upper cased. Surrounding quotes are removed and
+     * doubled quotes are unescaped.
+     * @param start is the offset of the first qualifier line of the feature.
+     * @param end is the offset after the last qualifier line of the feature.
+     * @param name is the qualifier name without slash.
+     * @return the value, an empty string for a qualifier without value or null when the qualifier is not present.
+     */
+    String decode(final int start, final int end, final String name) {
+        boolean translation = "translation".equals(name);
+        StringBuilder value = null;
+        boolean quoteOpen = false;
+
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0 || lineEnd > end) {
+                lineEnd = end;
+            }
+            int first = lineStart;
+            while (first < lineEnd && text.charAt(first) == ' ') {
+                first++;
+            }
+
+            /* A slash starts a new qualifier, unless the previous value still has an open quote. */
+            if (first < lineEnd && text.charAt(first) == '/' && !quoteOpen) {
+                if (value != null) {
+                    break;
+                }
+                int equals = text.indexOf('=', first);
+                int nameEnd = equals < 0 || equals > lineEnd ? lineEnd : equals;
+                if (nameEnd - first - 1 == name.length() && text.startsWith(name, first + 1)) {
+                    value = new StringBuilder();
+                }
+                if (nameEnd < lineEnd) {
+                    quoteOpen = appendValue(value, nameEnd + 1, lineEnd, false);
+                }
+            } else {
+                if (value != null && !translation) {
+                    value.append(' ');
+                }
+                quoteOpen = appendValue(value, first, lineEnd, quoteOpen);
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        if (value == null) {
+            return null;
+        }
+
+        /* Remove the surrounding quotes and unescape doubled quotes. */
+        String decoded = value.toString();
+        if (decoded.length() > 1 && decoded.charAt(0) == '"' && decoded.charAt(decoded.length() - 1) == '"') {
+            decoded = decoded.substring(1, decoded.length() - 1);
+        }
+        decoded = decoded.replace("\"\"", "\"");
+        return translation ? decoded.toUpperCase() : decoded;
+    }
+
+    /**
+     * Append part of a line to a qualifier value and keep track of quotes.
+     * @param target is the value buffer or null when the value is skipped.
+     * @param from is the first index to append.
+     * @param to is the index after the line.
+     * @param quoteOpen is true when a quote is open at the start of the part.
+     * @return true when a quote is open at the end of the part.
+     */
+    private boolean appendValue(final StringBuilder target, final int from, final int to, final boolean quoteOpen) {
+        int end = to;
+        while (end > from && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        boolean open = quoteOpen;
+        for (int i = from; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                open = !open;
+            }
+            if (target != null) {
+                target.append(c);
+            }
+        }
+        return open;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+/**
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+public enum RangeMode {
+
+    /**
+     * Contained selects features that lay strictly between the range coordinates.
+     */
+    CONTAINED("Contained"),
+
+    /**
+     * Overlap selects features that share at least one base with the range.
+     */
+    OVERLAP("Overlap");
+
+    /**
+     * @param type is a string containing range mode type.
+     */
+    private final String type;
+
+    /**
+    * Constructor for range mode type.
+    * @param type contains range mode type.
+    */
+    private RangeMode(final String type) {
+        this.type = type;
+    }
+
+    /**
+    * Get the range mode.
+    * @return type.
+    */
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return "Range mode: " + getType();
+    }
+}
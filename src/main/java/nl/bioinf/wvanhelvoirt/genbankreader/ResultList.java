@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.util.ArrayList;
+
+/**
+ * Appendable that collects the lines of a query result in a list, used by the query methods that return an
+ * ArrayList instead of writing to an output.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class ResultList implements Appendable {
+
+    /**
+     * @param lines contains the finished lines.
+     */
+    private final ArrayList<String> lines = new ArrayList<String>();
+
+    /**
+     * @param line contains the line that has not been ended by a newline yet.
+     */
+    private final StringBuilder line = new StringBuilder();
+
+    @Override
+    public ResultList append(final CharSequence csq) {
+        CharSequence text = csq == null ? "null" : csq;
+        return append(text, 0, text.length());
+    }
+
+    @Override
+    public ResultList append(final CharSequence csq, final int start, final int end) {
+        CharSequence text = csq == null ? "null" : csq;
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                line.append(text, lineStart, i);
+                lines.add(line.toString());
+                line.setLength(0);
+                lineStart = i + 1;
+            }
+        }
+        line.append(text, lineStart, end);
+        return this;
+    }
+
+    @Override
+    public ResultList append(final char c) {
+        if (c == '\n') {
+            lines.add(line.toString());
+            line.setLength(0);
+        } else {
+            line.append(c);
+        }
+        return this;
+    }
+
+    /**
+    * Get the collected lines, a line without a final newline is included.
+    * @return lines.
+    */
+    ArrayList<String> getLines() {
+        if (line.length() > 0) {
+            lines.add(line.toString());
+            line.setLength(0);
+        }
+        return lines;
+    }
+}
@@ -19,7 +19,12 @@ public enum SequenceOrientation {
     /**
      * Reverse is a sequence orientation.
      */
-    REVERSE("Reverse");
+    REVERSE("Reverse"),
+
+    /**
+     * Mixed is the orientation of a location with segments on both strands.
+     */
+    MIXED("Mixed");
 
     /**
      * @param type is a string containing orientation type.
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+/**
+ * Read only view on a range of a packed sequence, on the forward strand or as its reverse complement. A view does
+ * not copy any bases: charAt decodes from the packed sequence, subSequence and reverseComplement return new views
+ * on the same sequence. IUPAC codes are complemented to their IUPAC complement, other characters are kept.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+public final class SequenceView implements CharSequence {
+
+    /**
+     * @param COMPLEMENTS contains the complement of each ASCII character.
+     */
+    private static final char[] COMPLEMENTS = new char[128];
+
+    static {
+        for (char c = 0; c < COMPLEMENTS.length; c++) {
+            COMPLEMENTS[c] = c;
+        }
+        String codes = "ACGTRYSWKMBDHVN";
+        String complements = "TGCAYRSWMKVHDBN";
+        for (int i = 0; i < codes.length(); i++) {
+            COMPLEMENTS[codes.charAt(i)] = complements.charAt(i);
+        }
+    }
+
+    /**
+     * @param sequence is the viewed sequence.
+     */
+    private final PackedSequence sequence;
+
+    /**
+     * @param start is the first position of the range on the forward strand.
+     */
+    private final int start;
+
+    /**
+     * @param end is the position after the range on the forward strand.
+     */
+    private final int end;
+
+    /**
+     * @param reverse is true for a view on the reverse complement of the range.
+     */
+    private final boolean reverse;
+
+    /**
+    * Constructor for a view, use PackedSequence.view to create one.
+    * @param sequence is the viewed sequence.
+    * @param start is the first position of the range on the forward strand.
+    * @param end is the position after the range on the forward strand.
+    * @param reverse is true for a view on the reverse complement.
+    */
+    SequenceView(final PackedSequence sequence, final int start, final int end, final boolean reverse) {
+        if (start < 0 || end > sequence.length() || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " is outside sequence of length "
+                    + sequence.length() + ".");
+        }
+        this.sequence = sequence;
+        this.start = start;
+        this.end = end;
+        this.reverse = reverse;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside view of length " + length() + ".");
+        }
+        return reverse ? complement(sequence.charAt(end - 1 - index)) : sequence.charAt(start + index);
+    }
+
+    @Override
+    public SequenceView subSequence(final int from, final int to) {
+        if (from < 0 || to > length() || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to + " is outside view of length " + length()
+                    + ".");
+        }
+        return reverse ? new SequenceView(sequence, end - to, end - from, true)
+                : new SequenceView(sequence, start + from, start + to, false);
+    }
+
+    /**
+    * Get a view on the reverse complement of this view.
+    * @return SequenceView on the other strand of the same range.
+    */
+    public SequenceView reverseComplement() {
+        return new SequenceView(sequence, start, end, !reverse);
+    }
+
+    /**
+    * Check if this view is on the reverse complement.
+    * @return true for the reverse strand.
+    */
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    /**
+    * Decode a range of this view into a char array, a word of packed bases at a time.
+    * @param from is the first index of the view to decode.
+    * @param to is the index after the last one to decode.
+    * @param target is the array to decode into.
+    * @param offset is the index in target for the base at from.
+    */
+    public void getChars(final int from, final int to, final char[] target, final int offset) {
+        if (from < 0 || to > length() || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to + " is outside view of length " + length()
+                    + ".");
+        }
+        if (!reverse) {
+            sequence.getChars(start + from, start + to, target, offset);
+            return;
+        }
+
+        /* Decode the forward range, then reverse and complement it in place. */
+        sequence.getChars(end - to, end - from, target, offset);
+        for (int i = offset, j = offset + to - from - 1; i <= j; i++, j--) {
+            char left = complement(target[i]);
+            target[i] = complement(target[j]);
+            target[j] = left;
+        }
+    }
+
+    /**
+    * Get the complement of a base, characters that are not IUPAC codes are kept.
+    * @param base is the base.
+    * @return complementary base.
+    */
+    private static char complement(final char base) {
+        return base < COMPLEMENTS.length ? COMPLEMENTS[base] : base;
+    }
+
+    @Override
+    public String toString() {
+        char[] bases = new char[length()];
+        getChars(0, bases.length, bases, 0);
+        return new String(bases);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+package nl.bioinf.wvanhelvoirt.genbankreader;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent dictionary of strings that are repeated within and across genomes, such as product and gene names.
+ * Every distinct string is stored once as a Symbol with an int id, so equal strings of different features and of
+ * different loaded genomes share one instance and can be compared by id. The dictionary only holds its symbols
+ * weakly: a symbol that is no longer used by any feature is removed.
+ *
+ * @author Wout van Helvoirt [wout.van.helvoirt@gmail.com]
+ * @version 1.0.0
+ */
+final class StringDictionary {
+
+    /**
+     * @param SHARED is the dictionary shared by all parsed genomes.
+     */
+    private static final StringDictionary SHARED = new StringDictionary();
+
+    /**
+     * @param symbols contains a weak reference to the symbol of every string.
+     */
+    private final ConcurrentHashMap<String, SymbolReference> symbols = new ConcurrentHashMap<>();
+
+    /**
+     * @param cleared receives the references of symbols that have been garbage collected.
+     */
+    private final ReferenceQueue<Symbol> cleared = new ReferenceQueue<>();
+
+    /**
+     * @param nextId is the id of the next new symbol.
+     */
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Get the dictionary shared by all parsed genomes.
+     * @return the shared dictionary.
+     */
+    static StringDictionary getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the symbol of a string, a new symbol is created when the string is not in the dictionary.
+     * @param value is the string.
+     * @return Symbol with the same value, or null when value is null.
+     */
+    Symbol intern(final String value) {
+        if (value == null) {
+            return null;
+        }
+        expunge();
+        SymbolReference reference = symbols.get(value);
+        Symbol symbol = reference == null ? null : reference.get();
+        while (symbol == null) {
+
+            /* Add a new symbol, or replace a cleared one, unless another thread was first. */
+            Symbol created = new Symbol(value, nextId.getAndIncrement());
+            SymbolReference fresh = new SymbolReference(created, cleared);
+            if (reference == null ? symbols.putIfAbsent(value, fresh) == null
+                    : symbols.replace(value, reference, fresh)) {
+                return created;
+            }
+            reference = symbols.get(value);
+            symbol = reference == null ? null : reference.get();
+        }
+        return symbol;
+    }
+
+    /**
+     * Get the number of strings in the dictionary, including symbols that are about to be removed.
+     * @return dictionary size.
+     */
+    int size() {
+        expunge();
+        return symbols.size();
+    }
+
+    /**
+     * Remove the entries of symbols that have been garbage collected.
+     */
+    private void expunge() {
+        SymbolReference reference;
+        while ((reference = (SymbolReference) cleared.poll()) != null) {
+            symbols.remove(reference.value, reference);
+        }
+    }
+
+    /**
+     * A string of the dictionary and its id. Symbols of the same dictionary are equal when their ids are equal.
+     */
+    static final class Symbol implements Serializable {
+
+        /**
+         * @param serialVersionUID is the version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param value is the string.
+         */
+        private final String value;
+
+        /**
+         * @param id is the id of the string in the shared dictionary.
+         */
+        private final transient int id;
+
+        /**
+         * Constructor for a symbol.
+         * @param value is the string.
+         * @param id is the id of the string.
+         */
+        private Symbol(final String value, final int id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        /**
+        * Get value.
+        * @return value.
+        */
+        String getValue() {
+            return value;
+        }
+
+        /**
+        * Get id.
+        * @return id.
+        */
+        int getId() {
+            return id;
+        }
+
+        /**
+         * Ids are only valid in the running JVM, a deserialized symbol is interned in the shared dictionary again.
+         * @return the shared symbol with the same value.
+         * @throws ObjectStreamException never.
+         */
+        private Object readResolve() throws ObjectStreamException {
+            return SHARED.intern(value);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    /**
+     * Weak reference to a symbol that remembers its key for removal.
+     */
+    private static final class SymbolReference extends WeakReference<Symbol> {
+
+        /**
+         * @param value is the key of the symbol in the dictionary.
+         */
+        private final String value;
+
+        /**
+         * Constructor for a symbol reference.
+         * @param symbol is the referenced symbol.
+         * @param queue receives the reference when the symbol is collected.
+         */
+        private SymbolReference(final Symbol symbol, final ReferenceQueue<Symbol> queue) {
+            super(symbol, queue);
+            this.value = symbol.getValue();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+package nl.bioinf.wvanhelvoirt.servlets;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import nl.bioinf.wvanhelvoirt.genbankreader.GenBankFeatures;
+
+/**
+ * Returns one page of the result lines of a query on the uploaded GenBank file as JSON, for example
+ * {"offset":200,"lines":["..."],"next":400}. The page is written when the query is done. The first page stops the
+ * query when it is full and only its own lines are cached, later pages finish it for the QueryCache, so the pages
+ * after them are cut from the cached result. Next is the offset of the next page, or null on the last page.
+ *
+ * @author Wout van Helvoirt
+ */
+@WebServlet(name = "GenBankReaderJsonServlet", urlPatterns = {"/searchgbk.json"}, asyncSupported = true)
+public class GenBankReaderJsonServlet extends HttpServlet {
+
+    /**
+     * Version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Max number of lines on a page.
+     */
+    private static final int MAX_LIMIT = 5000;
+
+    /**
+     * Processes requests for both HTTP <code>GET</code> and <code>POST</code> methods.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    protected void processRequest(HttpServletRequest request, final HttpServletResponse response)
+            throws ServletException, IOException {
+
+        /* Get the genome of the session, without creating a session. */
+        HttpSession session = request.getSession(false);
+        GenBankFeatures sessionParsedGBK = session == null ? null
+                : GenomeCache.getInstance(getServletContext()).get(session);
+        if (sessionParsedGBK == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Sorry, but your session has been expired.");
+            return;
+        }
+
+        /* The option and input are given with the request, else the last ones of the session are used. */
+        String selectedOption = request.getParameter("selectedOption");
+        String optionInputValue = request.getParameter("optionInputValue");
+        if (selectedOption == null) {
+            selectedOption = (String) session.getAttribute("selectedOption");
+            optionInputValue = (String) session.getAttribute("optionInputValue");
+        }
+
+        long offset;
+        long limit;
+        try {
+            offset = getParameter(request, "offset", 0);
+            limit = getParameter(request, "limit", QueryResult.PAGE_SIZE);
+        } catch (NumberFormatException e) {
+            offset = -1;
+            limit = 0;
+        }
+        if (offset < 0 || limit < 1) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Offset and limit should be positive numbers.");
+            return;
+        }
+        final long pageOffset = offset;
+        final int pageLimit = (int) Math.min(limit, MAX_LIMIT);
+
+        final QueryResult query = new QueryResult(sessionParsedGBK,
+                ((GenomeKey) session.getAttribute(GenomeCache.SESSION_ATTRIBUTE)).getKey(),
+                QueryCache.getInstance(getServletContext()), (String) session.getAttribute("inputFile"),
+                selectedOption, optionInputValue);
+
+        /* Run the query on a query thread, the page is only written to the response when the request has not been
+           ended by its time out. */
+        QueryExecutor.getInstance(getServletContext()).execute(request, response, new QueryExecutor.Task() {
+            @Override
+            public QueryExecutor.Reply call() throws IOException {
+                final StringWriter out = new StringWriter();
+                out.write("{\"offset\":" + pageOffset + ",\"lines\":[");
+                long next = query.writePage(new JsonLineWriter(out), pageOffset, pageLimit);
+                out.write("],\"next\":" + (next < 0 ? "null" : Long.toString(next)) + "}");
+                return new QueryExecutor.Reply() {
+                    @Override
+                    public String apply() throws IOException {
+                        response.setContentType("application/json;charset=UTF-8");
+                        response.getWriter().write(out.toString());
+                        return null;
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Get a number parameter of the request.
+     *
+     * @param request servlet request
+     * @param name the parameter name
+     * @param defaultValue the value when the parameter is not given
+     * @return the value
+     * @throws NumberFormatException when the value is not a number
+     */
+    private static long getParameter(HttpServletRequest request, String name, long defaultValue) {
+        String value = request.getParameter(name);
+        return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * Appendable that writes each line as a JSON string in an array, the lines are ended by a newline.
+     */
+    private static final class JsonLineWriter implements Appendable {
+
+        /**
+         * The response output.
+         */
+        private final Writer out;
+
+        /**
+         * True when a string has been started and not ended.
+         */
+        private boolean open;
+
+        /**
+         * True when a line has been written, so the next one needs a comma.
+         */
+        private boolean written;
+
+        /**
+         * Constructor for a line writer.
+         *
+         * @param out the response output
+         */
+        private JsonLineWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            CharSequence text = csq == null ? "null" : csq;
+            return append(text, 0, text.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            CharSequence text = csq == null ? "null" : csq;
+            for (int i = start; i < end; i++) {
+                append(text.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (!open) {
+                out.write(written ? ",\"" : "\"");
+                open = true;
+                written = true;
+            }
+            switch (c) {
+                case '\n': out.write('"'); open = false; break;
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '<': out.write("\\u003c"); break;
+                default:
+                    if (c < ' ') {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+                    break;
+            }
+            return this;
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
+    /**
+     * Handles the HTTP <code>GET</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
+    /**
+     * Handles the HTTP <code>POST</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "This Servlet returns a page of the result lines of a query on the GenBankFeatures Object as JSON.";
+    }// </editor-fold>
+
+}
@@ -5,7 +5,6 @@
 package nl.bioinf.wvanhelvoirt.servlets;
 
 import java.io.IOException;
-import java.util.ArrayList;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -20,9 +19,14 @@ import nl.bioinf.wvanhelvoirt.genbankreader.GenBankFeatures;
  *
  * @author Wout van Helvoirt
  */
-@WebServlet(name = "GenBankReaderOptionServlet", urlPatterns = {"/searchgbk.do"})
+@WebServlet(name = "GenBankReaderOptionServlet", urlPatterns = {"/searchgbk.do"}, asyncSupported = true)
 public class GenBankReaderOptionServlet extends HttpServlet {
 
+    /**
+     * Version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * Processes requests for both HTTP <code>GET</code> and <code>POST</code> methods.
      *
@@ -35,30 +39,22 @@ public class GenBankReaderOptionServlet extends HttpServlet {
             throws ServletException, IOException {
         response.setContentType("text/html;charset=UTF-8");
 
-        /* Create empty ouput array. */
-        ArrayList<String> outputMessage = new ArrayList<String>();
-
         /* Get the session and attributes. */
         HttpSession session = request.getSession();
-        GenBankFeatures sessionParsedGBK = (GenBankFeatures) session.getAttribute("gbkObj");
+        GenBankFeatures sessionParsedGBK = GenomeCache.getInstance(getServletContext()).get(session);
         String inputFile = (String) session.getAttribute("inputFile");
 
         /* If there is a session, get user selected option and search GenBank file. */
         if (sessionParsedGBK != null) {
-            switch (request.getParameter("selectedOption")) {
-                case "Summary": outputMessage = sessionParsedGBK.getSummary(inputFile); break;
-                case "Fetch Gene(s)": outputMessage = sessionParsedGBK.fetchGene(request.getParameter("optionInputValue")); break;
-                case "Fetch CDS(s)": outputMessage = sessionParsedGBK.fetchCds(request.getParameter("optionInputValue")); break;
-                case "Fetch Features": outputMessage = sessionParsedGBK.fetchFeatures(request.getParameter("optionInputValue")); break;
-                case "Find Site(s)": outputMessage = sessionParsedGBK.findSites(request.getParameter("optionInputValue")); break;
-                default: outputMessage.add("The selected option is not yet available."); break;
-            }
+            /* The query is run on a query thread, the result page only writes its result. */
+            QueryResult outputMessage = new QueryResult(sessionParsedGBK, getGenomeKey(session),
+                    QueryCache.getInstance(getServletContext()), inputFile, request.getParameter("selectedOption"),
+                    request.getParameter("optionInputValue"));
 
             /* Set attributes and show results, else session timeout, return to home. */
             session.setAttribute("selectedOption", request.getParameter("selectedOption"));
             session.setAttribute("optionInputValue", request.getParameter("optionInputValue"));
-            session.setAttribute("message", outputMessage);
-            getServletContext().getRequestDispatcher("/jsp/content.jsp").forward(request, response);
+            showResult(request, response, outputMessage);
         } else {
             session.invalidate();
             request.setAttribute("error", "Sorry, but your session has been expired. Don't worry, you can upload another GenBank file if you like.");
@@ -66,6 +62,41 @@ public class GenBankReaderOptionServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Prepare the query on a query thread and show the result page when it is done.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @param outputMessage the query to prepare
+     * @throws IOException if an I/O error occurs
+     */
+    private void showResult(HttpServletRequest request, HttpServletResponse response, final QueryResult outputMessage)
+            throws IOException {
+        request.setAttribute("message", outputMessage);
+        QueryExecutor.getInstance(getServletContext()).execute(request, response, new QueryExecutor.Task() {
+            @Override
+            public QueryExecutor.Reply call() throws IOException {
+                outputMessage.prepare();
+                return new QueryExecutor.Reply() {
+                    @Override
+                    public String apply() {
+                        return "/jsp/content.jsp";
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Get the hash of the uploaded file of a session, which identifies its genome in the caches.
+     *
+     * @param session the session with an uploaded file
+     * @return the hash of the uploaded file
+     */
+    private String getGenomeKey(HttpSession session) {
+        return ((GenomeKey) session.getAttribute(GenomeCache.SESSION_ATTRIBUTE)).getKey();
+    }
+
     // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
     /**
      * Handles the HTTP <code>GET</code> method.
@@ -81,7 +112,7 @@ public class GenBankReaderOptionServlet extends HttpServlet {
 
         /* When entering an url in the adress bar of the browser, get session object and strings. */
         HttpSession session = request.getSession();
-        GenBankFeatures sessionParsedGBK = (GenBankFeatures) session.getAttribute("gbkObj");
+        GenBankFeatures sessionParsedGBK = GenomeCache.getInstance(getServletContext()).get(session);
         String inputFile = (String) session.getAttribute("inputFile");
         String selectedOption = (String) session.getAttribute("selectedOption");
         String optionInputValue = (String) session.getAttribute("optionInputValue");
@@ -93,18 +124,9 @@ public class GenBankReaderOptionServlet extends HttpServlet {
         } else {
 
             /* Else, get info from session object and go to result page. */
-            ArrayList<String> outputMessage = new ArrayList<String>();
-            switch (selectedOption) {
-                case "Summary": outputMessage = sessionParsedGBK.getSummary(inputFile); break;
-                case "Fetch Gene(s)": outputMessage = sessionParsedGBK.fetchGene(optionInputValue); break;
-                case "Fetch CDS(s)": outputMessage = sessionParsedGBK.fetchCds(optionInputValue); break;
-                case "Fetch Features": outputMessage = sessionParsedGBK.fetchFeatures(optionInputValue); break;
-                case "Find Site(s)": outputMessage = sessionParsedGBK.findSites(optionInputValue); break;
-                default: outputMessage.add("Have you been sniffing around in the html code?"); break;
-            }
-
-            request.setAttribute("message", outputMessage);
-            getServletContext().getRequestDispatcher("/jsp/content.jsp").forward(request, response);
+            QueryResult outputMessage = new QueryResult(sessionParsedGBK, getGenomeKey(session),
+                    QueryCache.getInstance(getServletContext()), inputFile, selectedOption, optionInputValue);
+            showResult(request, response, outputMessage);
         }
     }
     
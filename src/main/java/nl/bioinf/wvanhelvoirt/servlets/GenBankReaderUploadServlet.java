@@ -5,10 +5,15 @@
 package nl.bioinf.wvanhelvoirt.servlets;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -19,22 +24,58 @@ import javax.servlet.http.HttpSession;
 import nl.bioinf.wvanhelvoirt.genbankreader.GenBankFeatures;
 import nl.bioinf.wvanhelvoirt.genbankreader.GeneBankFileParser;
 
-import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.FileUploadException;
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload.UploadContext;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 
 /**
  *
  * @author Wout van Helvoirt
  */
-@WebServlet(name = "GenBankReaderUploadServlet", urlPatterns = {"/readgbk.do"})
+@WebServlet(name = "GenBankReaderUploadServlet", urlPatterns = {"/readgbk.do"}, asyncSupported = true)
 public class GenBankReaderUploadServlet extends HttpServlet {
 
     /**
-     * Set max request (upload file) size at 10 mb.
+     * Version of the serialized form.
      */
-    private static final int MAX_REQUEST_SIZE = 1024 * 1024; // 10 MB
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Max request (upload file) size in MB when the maxUploadSize context parameter is not given.
+     */
+    private static final long DEFAULT_MAX_UPLOAD_SIZE = 10;
+
+    /**
+     * Time budget in seconds for receiving and parsing an upload when the uploadTimeout context parameter is not
+     * given.
+     */
+    private static final long DEFAULT_UPLOAD_TIMEOUT = 300;
+
+    /**
+     * Max request (upload file) size in bytes.
+     */
+    private long maxRequestSize;
+
+    /**
+     * Time budget for receiving and parsing an upload in milliseconds.
+     */
+    private long uploadTimeout;
+
+    /**
+     * Reads the upload limit and time budget from the context parameters in web.xml.
+     *
+     * @throws ServletException if a servlet-specific error occurs
+     */
+    @Override
+    public void init() throws ServletException {
+        String size = getServletContext().getInitParameter("maxUploadSize");
+        String timeout = getServletContext().getInitParameter("uploadTimeout");
+        maxRequestSize = (size == null ? DEFAULT_MAX_UPLOAD_SIZE : Long.parseLong(size.trim())) * 1024 * 1024;
+        uploadTimeout = (timeout == null ? DEFAULT_UPLOAD_TIMEOUT : Long.parseLong(timeout.trim())) * 1000;
+    }
 
     /**
      * Processes requests for both HTTP <code>GET</code> and <code>POST</code> methods.
@@ -44,7 +85,7 @@ public class GenBankReaderUploadServlet extends HttpServlet {
      * @throws ServletException if a servlet-specific error occurs
      * @throws IOException if an I/O error occurs
      */
-    protected void processRequest(HttpServletRequest request, HttpServletResponse response)
+    protected void processRequest(final HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
         response.setContentType("text/html;charset=UTF-8");
 
@@ -52,70 +93,141 @@ public class GenBankReaderUploadServlet extends HttpServlet {
         if (!ServletFileUpload.isMultipartContent(request)) {
             request.setAttribute("error", "Please do not alter the HTML code.");
             getServletContext().getRequestDispatcher("/index.jsp").forward(request, response);
+            return;
         }
 
-        /* Create a factory for the disk-based file items. Sets the directory used to temporarily store files that are
-           larger than the configured size threshold. We use temporary directory for java */
-        DiskFileItemFactory factory = new DiskFileItemFactory();
-        factory.setRepository(new File(System.getProperty("java.io.tmpdir")));
+        /* Receive and parse the file on an upload thread, then show the page it returns. */
+        QueryExecutor.getInstance(getServletContext()).upload(request, response, uploadTimeout,
+                new QueryExecutor.UploadTask() {
+                    @Override
+                    public QueryExecutor.Reply call(final UploadContext body) throws IOException {
+                        return receiveFile(request, body);
+                    }
+                });
+    }
+
+    /**
+     * Receives the uploaded GenBank file and gets its genome from the genome cache, parsing it when it is not cached.
+     * The request is only used by the replies, when it has not been ended by its time out, the body is read until
+     * then.
+     *
+     * @param request servlet request, for the replies
+     * @param body the body of the request
+     * @return the reply that shows the content page, or the index page with an error when the file could not be used
+     * @throws IOException if an I/O error occurs
+     */
+    private QueryExecutor.Reply receiveFile(final HttpServletRequest request, final UploadContext body)
+            throws IOException {
 
-        /* Create a new file upload handler and set an overall request size. */
-        ServletFileUpload upload = new ServletFileUpload(factory);
-        upload.setSizeMax(MAX_REQUEST_SIZE);
+        /* Create a streaming file upload handler and set an overall request size. Nothing is buffered in memory, the
+           GenBank file is written to disk once while it is being received and parsed from there. */
+        ServletFileUpload upload = new ServletFileUpload();
+        upload.setSizeMax(maxRequestSize);
 
         /* Try to parse the request. */
         try {
-            List<FileItem> items = upload.parseRequest(request);
-            FileItem inputFile = items.get(0);
-
-            /* If there is an open session, close it and create a new one. 10 minutes web xml */
-            HttpSession session = request.getSession(false);
-            if (session != null) {
-                session.invalidate();
+            FileItemIterator items = upload.getItemIterator(body);
+            FileItemStream inputFile = null;
+            while (items.hasNext() && inputFile == null) {
+                FileItemStream item = items.next();
+                if (!item.isFormField()) {
+                    inputFile = item;
+                }
+            }
+            if (inputFile == null) {
+                return showError(request, "Please select a GenBank file to upload.");
             }
-            session = request.getSession(true);
-            GenBankFeatures sessionParsedGBK = (GenBankFeatures) session.getAttribute("gbkObj");
 
-            /* If no session object, create temp file and use temp file for creating reader opbject.
-               Else continue to page */
-            if (sessionParsedGBK == null) {
+            if (!GeneBankFileParser.isGenBankName(inputFile.getName())) {
+                return showError(request, "Given file '" + inputFile.getName() + "' is not a GenBank.");
+            }
 
-                try {
-                    File tempInput = File.createTempFile("upload", inputFile.getName());
-                    inputFile.write(tempInput.getAbsoluteFile());
+            /* Write the upload to a temporary file while hashing it, the hash is the key of the genome cache. */
+            File tempDir = (File) getServletContext().getAttribute(ServletContext.TEMPDIR);
+            Path uploadFile = File.createTempFile("upload", ".tmp", tempDir).toPath();
+            try {
+                MessageDigest digest = GenomeCache.newDigest();
+                try (InputStream inputStream = new DigestInputStream(inputFile.openStream(), digest)) {
+                    Files.copy(inputStream, uploadFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                String key = GenomeCache.toKey(digest);
 
-                    try {
-                        GeneBankFileParser infile = new GeneBankFileParser(tempInput.getAbsolutePath());
-                        GenBankFeatures gbkObj = infile.ParseGenBankContent();
+                /* Only parse the file when nobody uploaded it before. */
+                GenomeCache cache = GenomeCache.getInstance(getServletContext());
+                GenBankFeatures gbkObj = cache.get(key);
+                if (gbkObj == null) {
+                    GeneBankFileParser infile = new GeneBankFileParser(Files.newInputStream(uploadFile),
+                            inputFile.getName());
+                    gbkObj = infile.parseFirstRecord();
 
-                        /* Delete temp file when reader object created. */
-                        tempInput.delete();
+                    if (gbkObj == null) {
+                        return showError(request, "The file '" + inputFile.getName()
+                                + "' contains no GenBank record.");
+                    }
+                    gbkObj = cache.put(key, gbkObj);
+                }
+                return showContent(request, key, inputFile.getName(), gbkObj);
+            } finally {
+                Files.deleteIfExists(uploadFile);
+            }
 
-                        session.setAttribute("gbkObj", gbkObj);
-                        session.setAttribute("inputFile", inputFile.getName());
-                        getServletContext().getRequestDispatcher("/jsp/content.jsp").forward(request, response);
+        /* Catch any ocurring errors from file upload, including an upload that exceeds the size limit. */
+        } catch (FileUploadException | FileUploadBase.FileUploadIOException e) {
+            if (e instanceof FileUploadBase.SizeLimitExceededException
+                    || e.getCause() instanceof FileUploadBase.SizeLimitExceededException) {
+                return showError(request, "Sorry, but the file is larger than the upload limit of "
+                        + maxRequestSize / (1024 * 1024) + " MB.");
+            }
+            return showError(request, e.getMessage());
+        }
+    }
 
-                    /* Catch any ocurring errors from file validation. */
-                    } catch (FileNotFoundException e) {
-                        tempInput.delete();
-                        request.setAttribute("error", e.getMessage());
-                        getServletContext().getRequestDispatcher("/index.jsp").forward(request, response);
-                    }
+    /**
+     * Make the reply that starts a new session on the uploaded genome and shows the content page.
+     *
+     * @param request servlet request
+     * @param key the hash of the uploaded file
+     * @param fileName the name of the uploaded file
+     * @param gbkObj the genome of the uploaded file
+     * @return the reply
+     */
+    private QueryExecutor.Reply showContent(final HttpServletRequest request, final String key,
+            final String fileName, final GenBankFeatures gbkObj) {
+        return new QueryExecutor.Reply() {
+            @Override
+            public String apply() {
 
-                /* Catch any ocurring errors from temp file writing. */
-                } catch (Exception e) {
-                    request.setAttribute("error", e.getMessage());
-                    getServletContext().getRequestDispatcher("/index.jsp").forward(request, response);
+                /* If there is an open session, close it and create a new one. 10 minutes web xml */
+                HttpSession session = request.getSession(false);
+                if (session != null) {
+                    session.invalidate();
                 }
-            } else {
-                getServletContext().getRequestDispatcher("/jsp/content.jsp").forward(request, response);
+                session = request.getSession(true);
+
+                /* The key pins the genome, it is put back in case it was evicted since it was parsed. */
+                session.setAttribute(GenomeCache.SESSION_ATTRIBUTE, new GenomeKey(key));
+                session.setAttribute("inputFile", fileName);
+                GenomeCache.getInstance(getServletContext()).put(key, gbkObj);
+                return "/jsp/content.jsp";
             }
+        };
+    }
 
-        /* Catch any ocurring errors from file upload. */
-        } catch (FileUploadException e) {
-            request.setAttribute("error", e.getMessage());
-            getServletContext().getRequestDispatcher("/index.jsp").forward(request, response);
-        }
+    /**
+     * Make the reply that shows the index page with an error message.
+     *
+     * @param request servlet request
+     * @param error the error message
+     * @return the reply
+     */
+    private static QueryExecutor.Reply showError(final HttpServletRequest request, final String error) {
+        return new QueryExecutor.Reply() {
+            @Override
+            public String apply() {
+                request.setAttribute("error", error);
+                return "/index.jsp";
+            }
+        };
     }
 
     // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
@@ -133,7 +245,7 @@ public class GenBankReaderUploadServlet extends HttpServlet {
 
         /* When entering an url in the adress bar of the browser, get session object. */
         HttpSession session = request.getSession();
-        GenBankFeatures sessionParsedGBK = (GenBankFeatures) session.getAttribute("gbkObj");
+        GenBankFeatures sessionParsedGBK = GenomeCache.getInstance(getServletContext()).get(session);
 
         /* If no session found, remove all sessions and redirect to home. */
         if (sessionParsedGBK == null) {
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+package nl.bioinf.wvanhelvoirt.servlets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+
+import nl.bioinf.wvanhelvoirt.genbankreader.GenBankFeatures;
+
+/**
+ * Cache of parsed GenBank files for the whole application, keyed by the SHA-256 hash of the uploaded bytes. When
+ * several users upload the same file it is parsed once and shared. Sessions only hold a GenomeKey, which pins the
+ * genome while the session lives. The least recently used genomes that are not pinned are evicted when the cache
+ * holds more than its size limit, set in MB with the genomeCacheSize context parameter.
+ *
+ * @author Wout van Helvoirt
+ */
+public final class GenomeCache {
+
+    /**
+     * @param CONTEXT_ATTRIBUTE is the name of the cache in the servlet context.
+     */
+    private static final String CONTEXT_ATTRIBUTE = "genomeCache";
+
+    /**
+     * @param SESSION_ATTRIBUTE is the name of the GenomeKey in the session.
+     */
+    public static final String SESSION_ATTRIBUTE = "gbkKey";
+
+    /**
+     * @param DEFAULT_SIZE is the size limit in MB when no context parameter is given.
+     */
+    private static final long DEFAULT_SIZE = 256;
+
+    /**
+     * @param maxBytes is the size limit in bytes.
+     */
+    private final long maxBytes;
+
+    /**
+     * @param genomes contains the cached genomes in least recently used order.
+     */
+    private final LinkedHashMap<String, GenBankFeatures> genomes = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param sizes contains the size in bytes of each cached genome.
+     */
+    private final Map<String, Long> sizes = new HashMap<>();
+
+    /**
+     * @param pins contains the number of live sessions of each key, also for keys that are not cached yet.
+     */
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    /**
+     * @param totalBytes is the summed size of the cached genomes.
+     */
+    private long totalBytes;
+
+    /**
+     * Constructor for a cache.
+     * @param maxBytes is the size limit in bytes.
+     */
+    GenomeCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the cache of the application, it is created on first use.
+     * @param context is the servlet context.
+     * @return the cache.
+     */
+    public static GenomeCache getInstance(final ServletContext context) {
+        synchronized (context) {
+            GenomeCache cache = (GenomeCache) context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (cache == null) {
+                String size = context.getInitParameter("genomeCacheSize");
+                cache = new GenomeCache((size == null ? DEFAULT_SIZE : Long.parseLong(size.trim())) * 1024 * 1024);
+                context.setAttribute(CONTEXT_ATTRIBUTE, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Create a digest for hashing an upload into a cache key.
+     * @return SHA-256 message digest.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /**
+     * Get the cache key of a finished digest.
+     * @param digest is the digest of the uploaded bytes.
+     * @return hexadecimal hash.
+     */
+    public static String toKey(final MessageDigest digest) {
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get a cached genome, it becomes the most recently used one.
+     * @param key is the hash of the uploaded file.
+     * @return the genome or null when it is not cached.
+     */
+    public synchronized GenBankFeatures get(final String key) {
+        return genomes.get(key);
+    }
+
+    /**
+     * Get the genome of a session.
+     * @param session is the session.
+     * @return the genome or null when the session has no genome.
+     */
+    public GenBankFeatures get(final HttpSession session) {
+        GenomeKey key = (GenomeKey) session.getAttribute(SESSION_ATTRIBUTE);
+        return key == null ? null : get(key.getKey());
+    }
+
+    /**
+     * Add a parsed genome. When another upload of the same file was added first, that genome is kept.
+     * @param key is the hash of the uploaded file.
+     * @param genome is the parsed genome.
+     * @return the cached genome.
+     */
+    public synchronized GenBankFeatures put(final String key, final GenBankFeatures genome) {
+        GenBankFeatures cached = genomes.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long size = genome.getSizeInBytes();
+        genomes.put(key, genome);
+        sizes.put(key, size);
+        totalBytes += size;
+        evict();
+        return genome;
+    }
+
+    /**
+     * Pin a key for a session, the genome is not evicted until all its sessions have ended.
+     * @param key is the hash of the uploaded file.
+     */
+    synchronized void pin(final String key) {
+        Integer count = pins.get(key);
+        pins.put(key, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Unpin a key of a session that has ended.
+     * @param key is the hash of the uploaded file.
+     */
+    synchronized void unpin(final String key) {
+        Integer count = pins.get(key);
+        if (count == null || count <= 1) {
+            pins.remove(key);
+            evict();
+        } else {
+            pins.put(key, count - 1);
+        }
+    }
+
+    /**
+     * Evict the least recently used genomes that are not pinned until the cache fits its limit.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, GenBankFeatures>> entries = genomes.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.hasNext()) {
+            String key = entries.next().getKey();
+            if (!pins.containsKey(key)) {
+                entries.remove();
+                totalBytes -= sizes.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Get the number of cached genomes.
+     * @return genome count.
+     */
+    public synchronized int getGenomeCount() {
+        return genomes.size();
+    }
+
+    /**
+     * Get the summed size of the cached genomes, it can be over the limit while pinned genomes fill the cache.
+     * @return size in bytes.
+     */
+    public synchronized long getSizeInBytes() {
+        return totalBytes;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+package nl.bioinf.wvanhelvoirt.servlets;
+
+import java.io.Serializable;
+
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+/**
+ * The key of the uploaded genome in the GenomeCache, stored in the session instead of the genome itself. It pins the
+ * genome in the cache when it is added to a session and unpins it when the session is invalidated or times out.
+ *
+ * @author Wout van Helvoirt
+ */
+public final class GenomeKey implements HttpSessionBindingListener, Serializable {
+
+    /**
+     * @param serialVersionUID is the version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param key is the hash of the uploaded file.
+     */
+    private final String key;
+
+    /**
+     * Constructor for a key.
+     * @param key is the hash of the uploaded file.
+     */
+    public GenomeKey(final String key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the hash of the uploaded file.
+     * @return key.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public void valueBound(final HttpSessionBindingEvent event) {
+        GenomeCache.getInstance(event.getSession().getServletContext()).pin(key);
+    }
+
+    @Override
+    public void valueUnbound(final HttpSessionBindingEvent event) {
+        GenomeCache.getInstance(event.getSession().getServletContext()).unpin(key);
+    }
+}
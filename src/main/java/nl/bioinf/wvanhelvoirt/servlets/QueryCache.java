@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+package nl.bioinf.wvanhelvoirt.servlets;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+
+import nl.bioinf.wvanhelvoirt.genbankreader.Coordinates;
+import nl.bioinf.wvanhelvoirt.genbankreader.GenBankFeatures;
+
+/**
+ * Cache of query results for the whole application, keyed by the genome hash, the selected option and the input.
+ * A page refresh or the same query by another user on the same genome is answered from the cache. The least recently
+ * used results are evicted when the cache holds more than its size limit, set in MB with the queryCacheSize context
+ * parameter. A result larger than an eighth of the limit is not cached, so one huge result can not flush the rest,
+ * but the first page of such a result is, so a refresh does not run the query again.
+ *
+ * @author Wout van Helvoirt
+ */
+public final class QueryCache {
+
+    /**
+     * @param CONTEXT_ATTRIBUTE is the name of the cache in the servlet context.
+     */
+    private static final String CONTEXT_ATTRIBUTE = "queryCache";
+
+    /**
+     * @param DEFAULT_SIZE is the size limit in MB when no context parameter is given.
+     */
+    private static final long DEFAULT_SIZE = 32;
+
+    /**
+     * @param maxChars is the size limit in characters, two bytes each.
+     */
+    private final long maxChars;
+
+    /**
+     * @param results contains the cached results in least recently used order.
+     */
+    private final LinkedHashMap<String, String> results = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param totalChars is the summed length of the cached results.
+     */
+    private long totalChars;
+
+    /**
+     * @param hits is the number of queries answered from the cache.
+     */
+    private long hits;
+
+    /**
+     * @param misses is the number of queries that had to be run.
+     */
+    private long misses;
+
+    /**
+     * Constructor for a cache.
+     * @param maxBytes is the size limit in bytes.
+     */
+    QueryCache(final long maxBytes) {
+        this.maxChars = maxBytes / 2;
+    }
+
+    /**
+     * Get the cache of the application, it is created on first use.
+     * @param context is the servlet context.
+     * @return the cache.
+     */
+    public static QueryCache getInstance(final ServletContext context) {
+        synchronized (context) {
+            QueryCache cache = (QueryCache) context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (cache == null) {
+                String size = context.getInitParameter("queryCacheSize");
+                cache = new QueryCache((size == null ? DEFAULT_SIZE : Long.parseLong(size.trim())) * 1024 * 1024);
+                context.setAttribute(CONTEXT_ATTRIBUTE, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Get the cache key of a query. The summaries do not use the input but show the file name. The other options use
+     * the input the way the query reads it, so inputs that only differ in case, spaces or left out characters share
+     * a result: the filtered pattern of a site search, the parsed coordinates of a range and the motifs of a digest.
+     * Input the query can not read, and the gene and CDS patterns, are used as given, because their messages repeat
+     * it.
+     * @param genomeKey is the hash of the uploaded file.
+     * @param inputFile is the name of the uploaded file.
+     * @param selectedOption is the option selected by the user.
+     * @param optionInputValue is the pattern or coordinates entered by the user.
+     * @return cache key.
+     */
+    public static String key(final String genomeKey, final String inputFile, final String selectedOption,
+            final String optionInputValue) {
+        String option = selectedOption == null ? "" : selectedOption;
+        String input = optionInputValue == null ? "" : optionInputValue;
+        switch (option) {
+            case "Summary":
+            case "Extended Summary":
+                input = inputFile == null ? "" : inputFile;
+                break;
+            case "Find Site(s)":
+                String pattern = GenBankFeatures.filterSitePattern(input);
+                input = pattern.isEmpty() ? input : pattern;
+                break;
+            case "Fetch Features":
+            case "Fetch Overlapping Features":
+                try {
+                    Coordinates cs = GenBankFeatures.parseCoordinates(input);
+                    input = cs.getFirst() + "," + cs.getLast();
+                } catch (NumberFormatException e) {
+
+                    /* The input is not read by the query, its message repeats the input as given. */
+                }
+                break;
+            case "Digest":
+                try {
+                    input = GenBankFeatures.normalizeMotifs(input);
+                } catch (IllegalArgumentException e) {
+
+                    /* The input is not read by the query, its message repeats the input as given. */
+                }
+                break;
+            default:
+                break;
+        }
+        return genomeKey + '\n' + option + '\n' + input;
+    }
+
+    /**
+     * Get the cache key of the first page of a query, it is kept when the whole result is too long for the cache.
+     * Genome hashes are hexadecimal, so this key can not be the key of a whole result.
+     * @param key is the cache key of the query.
+     * @return cache key of the first page.
+     */
+    public static String firstPageKey(final String key) {
+        return "first page\n" + key;
+    }
+
+    /**
+     * Get a cached result, it becomes the most recently used one.
+     * @param key is the cache key of the query or of its first page.
+     * @return the result lines, each ended by a newline, or null when the result is not cached.
+     */
+    public synchronized String get(final String key) {
+        return results.get(key);
+    }
+
+    /**
+     * Count a query as answered from the cache or run. A query is counted on the lookup of its first page only, the
+     * later pages of the same query are not counted again.
+     * @param hit is true when the query was answered from the cache.
+     */
+    public synchronized void count(final boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    /**
+     * Add a result and evict the least recently used results until the cache fits its limit. A whole result replaces
+     * the first page of its query.
+     * @param key is the cache key of the query or of its first page.
+     * @param result contains the result lines, each ended by a newline.
+     */
+    public synchronized void put(final String key, final String result) {
+        if (result.length() > getMaxResultLength()) {
+            return;
+        }
+        String previous = results.put(key, result);
+        totalChars += result.length() - (previous == null ? 0 : previous.length());
+        String firstPage = results.remove(firstPageKey(key));
+        totalChars -= firstPage == null ? 0 : firstPage.length();
+        Iterator<Map.Entry<String, String>> entries = results.entrySet().iterator();
+        while (totalChars > maxChars && entries.hasNext()) {
+            totalChars -= entries.next().getValue().length();
+            entries.remove();
+        }
+    }
+
+    /**
+     * Get the length of the largest result that is cached.
+     * @return length in characters.
+     */
+    public long getMaxResultLength() {
+        return maxChars / 8;
+    }
+
+    /**
+     * Get the number of queries answered from the cache.
+     * @return hit count.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of queries that were not cached.
+     * @return miss count.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the summed size of the cached results.
+     * @return size in bytes.
+     */
+    public synchronized long getSizeInBytes() {
+        return 2 * totalChars;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+package nl.bioinf.wvanhelvoirt.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.fileupload.UploadContext;
+
+/**
+ * Runs the parsing and the queries of the servlets on a fixed number of threads with a bounded queue, so heavy
+ * requests can not use up the request threads of the container. A request that does not fit in the queue gets a 503
+ * with Retry-After at once. A request that is not done within its time budget gets a 503 and its work is
+ * interrupted; queries stop at their next output line or scanned chunk and parsing at its next read. The work does
+ * not use the request, it returns a reply that is only applied while the request has not been ended. An upload reads
+ * its body through an UploadBody, which stops reading once the request has ended. The number of
+ * threads, the queue size and the time budget in seconds are set with the queryThreads, queryQueueSize and
+ * queryTimeout context parameters.
+ * <p>
+ * Uploads have threads and a queue of their own, set with the uploadThreads and uploadQueueSize context parameters.
+ * An upload holds its thread for the whole transfer, so slow uploads would otherwise keep the queries waiting until
+ * their time budget, which includes the wait in the queue, has run out.
+ *
+ * @author Wout van Helvoirt
+ */
+@WebListener
+public class QueryExecutor implements ServletContextListener {
+
+    /**
+     * @param CONTEXT_ATTRIBUTE is the name of the executor in the servlet context.
+     */
+    private static final String CONTEXT_ATTRIBUTE = "queryExecutor";
+
+    /**
+     * @param RETRY_AFTER is the number of seconds a client should wait when the queue is full.
+     */
+    private static final int RETRY_AFTER = 5;
+
+    /**
+     * @param executor runs the work of the requests.
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * @param uploadExecutor receives and parses the uploads.
+     */
+    private ThreadPoolExecutor uploadExecutor;
+
+    /**
+     * @param timeout is the time budget of a request in milliseconds.
+     */
+    private long timeout;
+
+    /**
+     * The work of a request, it is run on an executor thread.
+     */
+    public interface Task {
+
+        /**
+         * Do the work of the request. The request may have been ended by its time out while the work runs, so the
+         * work does not use the request or response but returns a reply that does.
+         * @return the reply to the request.
+         * @throws ServletException if a servlet-specific error occurs
+         * @throws IOException if an I/O error occurs
+         */
+        Reply call() throws ServletException, IOException;
+    }
+
+    /**
+     * The work of an upload request, it is run on an upload thread.
+     */
+    public interface UploadTask {
+
+        /**
+         * Receive and use the upload. The work does not use the request or response but returns a reply that does,
+         * the body can only be read until the request has ended.
+         * @param body is the body of the request with its headers.
+         * @return the reply to the request.
+         * @throws ServletException if a servlet-specific error occurs
+         * @throws IOException if an I/O error occurs
+         */
+        Reply call(UploadContext body) throws ServletException, IOException;
+    }
+
+    /**
+     * The reply to a request, made from the result of its work.
+     */
+    public interface Reply {
+
+        /**
+         * Set the request attributes for the page, or write the response itself. This is only done when the request
+         * has not been ended by its time out, and the time out waits until it is done.
+         * @return the path of the page to show, null when the response has been written.
+         * @throws ServletException if a servlet-specific error occurs
+         * @throws IOException if an I/O error occurs
+         */
+        String apply() throws ServletException, IOException;
+    }
+
+    @Override
+    public void contextInitialized(final ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        int threads = getParameter(context, "queryThreads", Runtime.getRuntime().availableProcessors());
+        int queueSize = getParameter(context, "queryQueueSize", 4 * threads);
+        timeout = getParameter(context, "queryTimeout", 30) * 1000L;
+
+        executor = newExecutor("genbank-query-", threads, queueSize);
+        int uploadThreads = getParameter(context, "uploadThreads", 2);
+        uploadExecutor = newExecutor("genbank-upload-", uploadThreads,
+                getParameter(context, "uploadQueueSize", 4 * uploadThreads));
+        context.setAttribute(CONTEXT_ATTRIBUTE, this);
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent event) {
+        event.getServletContext().removeAttribute(CONTEXT_ATTRIBUTE);
+        executor.shutdownNow();
+        uploadExecutor.shutdownNow();
+    }
+
+    /**
+     * Create an executor with a fixed number of daemon threads and a bounded queue.
+     * @param name is the start of the thread names.
+     * @param threads is the number of threads.
+     * @param queueSize is the number of requests that can wait for a thread.
+     * @return the executor.
+     */
+    private static ThreadPoolExecutor newExecutor(final String name, final int threads, final int queueSize) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(runnable, name + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Get an integer context parameter.
+     * @param context is the servlet context.
+     * @param name is the parameter name.
+     * @param defaultValue is used when the parameter is not given.
+     * @return the value.
+     */
+    private static int getParameter(final ServletContext context, final String name, final int defaultValue) {
+        String value = context.getInitParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Get the executor of the application.
+     * @param context is the servlet context.
+     * @return the executor.
+     */
+    public static QueryExecutor getInstance(final ServletContext context) {
+        return (QueryExecutor) context.getAttribute(CONTEXT_ATTRIBUTE);
+    }
+
+    /**
+     * Put a request in asynchronous mode and run its work on an executor thread. When the work is done the request is
+     * dispatched to the page it returned, or completed when it wrote the response itself.
+     * @param request servlet request
+     * @param response servlet response
+     * @param task is the work of the request.
+     * @throws IOException if an I/O error occurs
+     */
+    public void execute(final HttpServletRequest request, final HttpServletResponse response, final Task task)
+            throws IOException {
+        execute(executor, request, response, timeout, new AtomicBoolean(), task);
+    }
+
+    /**
+     * Put an upload request in asynchronous mode and receive and parse the upload on an upload thread, with its own
+     * time budget. The headers and input stream of the body are taken from the request on this thread.
+     * @param request servlet request
+     * @param response servlet response
+     * @param budget is the time budget of the request in milliseconds.
+     * @param task is the work of the request.
+     * @throws IOException if an I/O error occurs
+     */
+    public void upload(final HttpServletRequest request, final HttpServletResponse response, final long budget,
+            final UploadTask task) throws IOException {
+        AtomicBoolean ended = new AtomicBoolean();
+        final UploadBody body = new UploadBody(request, ended);
+        execute(uploadExecutor, request, response, budget, ended, new Task() {
+            @Override
+            public Reply call() throws ServletException, IOException {
+                return task.call(body);
+            }
+        });
+    }
+
+    /**
+     * Put a request in asynchronous mode and run its work on a thread of an executor.
+     * @param pool is the executor that runs the work.
+     * @param request servlet request
+     * @param response servlet response
+     * @param budget is the time budget of the request in milliseconds.
+     * @param ended is set once the request has ended, it is the lock for using the request.
+     * @param task is the work of the request.
+     * @throws IOException if an I/O error occurs
+     */
+    private static void execute(final ThreadPoolExecutor pool, final HttpServletRequest request,
+            final HttpServletResponse response, final long budget, final AtomicBoolean ended, final Task task)
+            throws IOException {
+        final AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(budget);
+        final ServletContext context = request.getServletContext();
+
+        /* Either the reply or the time out ends the request, whichever comes first. The request is only used while
+           holding the lock on ended, so a time out can not end it while the reply is applied or the body is read. */
+        final AtomicReference<Future<?>> work = new AtomicReference<>();
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(final AsyncEvent event) {
+                synchronized (ended) {
+                    if (ended.compareAndSet(false, true)) {
+                        cancel(work.get());
+                        sendError(async, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Sorry, but your request took "
+                                + "longer than " + budget / 1000 + " seconds and has been stopped.");
+                    }
+                }
+            }
+
+            @Override
+            public void onComplete(final AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(final AsyncEvent event) {
+                synchronized (ended) {
+                    if (ended.compareAndSet(false, true)) {
+                        cancel(work.get());
+                        async.complete();
+                    }
+                }
+            }
+
+            @Override
+            public void onStartAsync(final AsyncEvent event) {
+            }
+        });
+
+        try {
+            work.set(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Reply reply = task.call();
+                        synchronized (ended) {
+                            if (!ended.get()) {
+                                String path = reply.apply();
+                                ended.set(true);
+                                if (path != null) {
+                                    async.dispatch(path);
+                                } else {
+                                    async.complete();
+                                }
+                            }
+                        }
+                    } catch (ServletException | IOException | RuntimeException e) {
+                        synchronized (ended) {
+                            if (ended.compareAndSet(false, true)) {
+                                context.log("The request could not be completed.", e);
+                                sendError(async, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                                        "Sorry, but something went wrong: " + e.getMessage());
+                            }
+                        }
+                    }
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            ended.set(true);
+            response.setHeader("Retry-After", Integer.toString(RETRY_AFTER));
+            sendError(async, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Sorry, but the server is busy. Please try again in a few seconds.");
+        }
+    }
+
+    /**
+     * Interrupt the work of a request, if it was submitted.
+     * @param work is the submitted work or null.
+     */
+    private static void cancel(final Future<?> work) {
+        if (work != null) {
+            work.cancel(true);
+        }
+    }
+
+    /**
+     * Send an error response and end the request.
+     * @param async is the asynchronous request.
+     * @param status is the HTTP status.
+     * @param message is the error message.
+     */
+    private static void sendError(final AsyncContext async, final int status, final String message) {
+        try {
+            ((HttpServletResponse) async.getResponse()).sendError(status, message);
+        } catch (IOException | IllegalStateException e) {
+            async.getRequest().getServletContext().log("The error response could not be sent.", e);
+        }
+        async.complete();
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+package nl.bioinf.wvanhelvoirt.servlets;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+
+import nl.bioinf.wvanhelvoirt.genbankreader.GenBankFeatures;
+import nl.bioinf.wvanhelvoirt.genbankreader.RangeMode;
+
+/**
+ * A query on the uploaded GenBank file. The servlet prepares the first page of result lines on a QueryExecutor
+ * thread and the page writes it with ${message.write(pageContext.out)}, the next pages are loaded from the JSON
+ * servlet. A page stops the query as soon as it is full, so the first lines come back just as fast for a query with
+ * millions of hits. A complete result is kept in the QueryCache, so a refresh or the same query by another user is
+ * not run again, and its pages are cut from the cached lines. Until a later page has finished the query, the first
+ * page is cached on its own.
+ *
+ * @author Wout van Helvoirt
+ */
+public class QueryResult {
+
+    /**
+     * @param PAGE_SIZE is the number of result lines on a page.
+     */
+    public static final int PAGE_SIZE = 200;
+
+    /**
+     * @param genBank is the parsed GenBank file to query.
+     */
+    private final GenBankFeatures genBank;
+
+    /**
+     * @param genomeKey is the hash of the uploaded file.
+     */
+    private final String genomeKey;
+
+    /**
+     * @param cache contains the results of earlier queries.
+     */
+    private final QueryCache cache;
+
+    /**
+     * @param result contains the lines of the first page, null until the query is prepared.
+     */
+    private String result;
+
+    /**
+     * @param nextOffset is the index of the first line after the prepared page, -1 when there are no more lines.
+     */
+    private long nextOffset = -1;
+
+    /**
+     * @param inputFile is the name of the uploaded file.
+     */
+    private final String inputFile;
+
+    /**
+     * @param selectedOption is the option selected by the user.
+     */
+    private final String selectedOption;
+
+    /**
+     * @param optionInputValue is the pattern or coordinates entered by the user.
+     */
+    private final String optionInputValue;
+
+    /**
+     * Constructor for a query.
+     * @param genBank is the parsed GenBank file to query.
+     * @param genomeKey is the hash of the uploaded file.
+     * @param cache contains the results of earlier queries.
+     * @param inputFile is the name of the uploaded file.
+     * @param selectedOption is the option selected by the user.
+     * @param optionInputValue is the pattern or coordinates entered by the user.
+     */
+    public QueryResult(final GenBankFeatures genBank, final String genomeKey, final QueryCache cache,
+            final String inputFile, final String selectedOption, final String optionInputValue) {
+        this.genBank = genBank;
+        this.genomeKey = genomeKey;
+        this.cache = cache;
+        this.inputFile = inputFile;
+        this.selectedOption = selectedOption;
+        this.optionInputValue = optionInputValue;
+    }
+
+    /**
+     * Run the query for the first page before the page is rendered. This is done on a QueryExecutor thread, the page
+     * then only writes the prepared lines.
+     * @throws IOException when the query is cancelled.
+     */
+    public void prepare() throws IOException {
+        StringBuilder page = new StringBuilder();
+        nextOffset = writePage(page, 0, PAGE_SIZE);
+        result = page.toString();
+    }
+
+    /**
+     * Write the prepared page, or run the query and write every result line as an output message block.
+     * @param out is the page output.
+     * @return an empty string, so the call renders nothing itself.
+     * @throws IOException when writing to the page fails.
+     */
+    public String write(final Writer out) throws IOException {
+        HtmlLineWriter lines = new HtmlLineWriter(out);
+        if (result != null) {
+            lines.append(result);
+        } else {
+            writePage(lines, 0, Integer.MAX_VALUE);
+        }
+        return "";
+    }
+
+    /**
+     * Write a page of result lines, each ended by a newline. The page is cut from the cached result or first page
+     * when there is one, else the query is run until the page is full.
+     * @param out is the output for the lines.
+     * @param offset is the index of the first line to write.
+     * @param limit is the maximum number of lines to write.
+     * @return the index of the first line after the page, -1 when there are no more lines.
+     * @throws IOException when writing fails or the query is cancelled.
+     */
+    public long writePage(final Appendable out, final long offset, final int limit) throws IOException {
+        String key = QueryCache.key(genomeKey, inputFile, selectedOption, optionInputValue);
+        String cached = cache.get(key);
+        String firstPage = null;
+        if (cached == null && offset + limit <= PAGE_SIZE) {
+            firstPage = cache.get(QueryCache.firstPageKey(key));
+        }
+        if (offset == 0) {
+            cache.count(cached != null || firstPage != null);
+        }
+        if (cached != null) {
+            return writeCachedPage(cached, out, offset, limit);
+        }
+        if (firstPage != null) {
+
+            /* Only the first page of a longer result is cached, so there are lines after it. */
+            writeCachedPage(firstPage, out, offset, limit);
+            return offset + limit;
+        }
+
+        /* Keep a copy of the lines, so a result that fits in the cache is not run again. The first page stops the
+           query when it is full and only its own lines are cached, a later page finishes the query for the cache, so
+           the pages after it are cut from the cached result instead of running the query up to their offset again. */
+        PageWriter page = new PageWriter(out, offset, limit, cache.getMaxResultLength(), offset > 0);
+        try {
+            run(page);
+            page.finish();
+        } catch (PageFullException e) {
+            if (offset == 0 && limit >= PAGE_SIZE && page.getResult() != null) {
+                cache.put(QueryCache.firstPageKey(key), page.getResult());
+            }
+            return offset + limit;
+        }
+        if (page.getResult() != null) {
+            cache.put(key, page.getResult());
+        }
+        return page.hasMore() ? offset + limit : -1;
+    }
+
+    /**
+     * Write a page of lines of a cached result.
+     * @param cached contains the result lines.
+     * @param out is the output for the lines.
+     * @param offset is the index of the first line to write.
+     * @param limit is the maximum number of lines to write.
+     * @return the index of the first line after the page, -1 when there are no more lines.
+     * @throws IOException when writing fails.
+     */
+    private static long writeCachedPage(final String cached, final Appendable out, final long offset,
+            final int limit) throws IOException {
+        long line = 0;
+        int start = 0;
+        while (start < cached.length()) {
+            if (line == offset + limit) {
+                return line;
+            }
+            int end = cached.indexOf('\n', start);
+            if (end < 0) {
+                end = cached.length();
+            }
+            if (line >= offset) {
+                out.append(cached, start, end).append('\n');
+            }
+            line++;
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Run the query of the selected option.
+     * @param out is the output for the result lines.
+     * @throws IOException when writing the result fails.
+     */
+    private void run(final Appendable out) throws IOException {
+        switch (selectedOption == null ? "" : selectedOption) {
+            case "Summary": genBank.writeSummary(inputFile, out); break;
+            case "Extended Summary": genBank.writeExtendedSummary(inputFile, out); break;
+            case "Fetch Gene(s)": genBank.writeGenes(optionInputValue, out); break;
+            case "Fetch CDS(s)": genBank.writeCds(optionInputValue, out); break;
+            case "Fetch Features": genBank.writeFeatures(optionInputValue, RangeMode.CONTAINED, out); break;
+            case "Fetch Overlapping Features": genBank.writeFeatures(optionInputValue, RangeMode.OVERLAP, out); break;
+            case "Find Site(s)": genBank.writeSites(optionInputValue, out); break;
+            case "Digest": genBank.writeDigest(optionInputValue, out); break;
+            default: out.append("The selected option is not yet available.\n"); break;
+        }
+    }
+
+    /**
+     * Get the option selected by the user.
+     * @return selectedOption.
+     */
+    public String getSelectedOption() {
+        return selectedOption;
+    }
+
+    /**
+     * Get the pattern or coordinates entered by the user.
+     * @return optionInputValue.
+     */
+    public String getOptionInputValue() {
+        return optionInputValue;
+    }
+
+    /**
+     * Get the index of the first line after the prepared page.
+     * @return nextOffset, -1 when there are no more lines.
+     */
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Appendable that passes the lines of one page on and keeps a copy of all lines, until the copy gets longer than
+     * a limit. It stops the query when the page is full, or when its thread is interrupted, for example when the
+     * request ran out of time. When the rest of the query should be finished for the cache, it only stops when the
+     * copy gets too long.
+     */
+    private static final class PageWriter implements Appendable {
+
+        /**
+         * @param out is the output for the lines of the page.
+         */
+        private final Appendable out;
+
+        /**
+         * @param offset is the index of the first line of the page.
+         */
+        private final long offset;
+
+        /**
+         * @param end is the index of the first line after the page.
+         */
+        private final long end;
+
+        /**
+         * @param maxLength is the longest copy that is kept.
+         */
+        private final long maxLength;
+
+        /**
+         * @param finishQuery is true when the query goes on after the page while the copy can be cached.
+         */
+        private final boolean finishQuery;
+
+        /**
+         * @param line contains the line of the page that has not been ended by a newline yet.
+         */
+        private final StringBuilder line = new StringBuilder();
+
+        /**
+         * @param partial is true when characters have been appended after the last newline.
+         */
+        private boolean partial;
+
+        /**
+         * @param lineCount is the number of ended lines.
+         */
+        private long lineCount;
+
+        /**
+         * @param copy contains everything appended so far, null when it got too long.
+         */
+        private StringBuilder copy = new StringBuilder();
+
+        /**
+         * Constructor for a page writer.
+         * @param out is the output for the lines of the page.
+         * @param offset is the index of the first line of the page.
+         * @param limit is the maximum number of lines on the page.
+         * @param maxLength is the longest copy that is kept.
+         * @param finishQuery is true when the query goes on after the page while the copy can be cached.
+         */
+        private PageWriter(final Appendable out, final long offset, final int limit, final long maxLength,
+                final boolean finishQuery) {
+            this.out = out;
+            this.offset = offset;
+            this.end = offset + limit;
+            this.maxLength = maxLength;
+            this.finishQuery = finishQuery;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq) throws IOException {
+            CharSequence text = csq == null ? "null" : csq;
+            return append(text, 0, text.length());
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+            CharSequence text = csq == null ? "null" : csq;
+            for (int i = start; i < end; i++) {
+                append(text.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(final char c) throws IOException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("The query has been cancelled.");
+            }
+
+            /* Anything after the last line of the page means there is a next page. */
+            if (lineCount >= end && (!finishQuery || copy == null)) {
+                throw new PageFullException();
+            }
+            if (copy != null) {
+                copy.append(c);
+                if (copy.length() > maxLength) {
+                    copy = null;
+                }
+            }
+            if (c == '\n') {
+                endLine();
+            } else {
+                partial = true;
+                if (lineCount < end) {
+                    line.append(c);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Pass the current line on when it is on the page.
+         * @throws IOException when writing fails.
+         */
+        private void endLine() throws IOException {
+            if (lineCount >= offset && lineCount < end) {
+                out.append(line).append('\n');
+            }
+            line.setLength(0);
+            partial = false;
+            lineCount++;
+        }
+
+        /**
+         * End a last line that has no newline.
+         * @throws IOException when writing fails.
+         */
+        private void finish() throws IOException {
+            if (partial) {
+                endLine();
+            }
+        }
+
+        /**
+         * Check if the query had more lines than the page.
+         * @return true when there is a next page.
+         */
+        private boolean hasMore() {
+            return lineCount > end;
+        }
+
+        /**
+         * Get the copy of everything appended.
+         * @return the result or null when it got too long.
+         */
+        private String getResult() {
+            return copy == null ? null : copy.toString();
+        }
+    }
+
+    /**
+     * Thrown by a PageWriter to stop the query when its page is full.
+     */
+    private static final class PageFullException extends IOException {
+
+        /**
+         * @param serialVersionUID is the version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Appendable that writes each line as an HTML escaped paragraph, character by character.
+     */
+    private static final class HtmlLineWriter implements Appendable {
+
+        /**
+         * @param out is the page output.
+         */
+        private final Writer out;
+
+        /**
+         * @param open is true when a paragraph has been started and not ended.
+         */
+        private boolean open;
+
+        /**
+         * Constructor for a line writer.
+         * @param out is the page output.
+         */
+        private HtmlLineWriter(final Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq) throws IOException {
+            CharSequence text = csq == null ? "null" : csq;
+            return append(text, 0, text.length());
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+            CharSequence text = (csq == null ? "null" : csq).subSequence(start, end).toString();
+            for (int i = 0; i < text.length(); i++) {
+                append(text.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(final char c) throws IOException {
+            if (!open) {
+                out.write("<p class=\"outputMessageBlock\">");
+                open = true;
+            }
+            switch (c) {
+                case '\n': out.write("</p>\n"); open = false; break;
+                case '&': out.write("&amp;"); break;
+                case '<': out.write("&lt;"); break;
+                case '>': out.write("&gt;"); break;
+                case '"': out.write("&#034;"); break;
+                case '\'': out.write("&#039;"); break;
+                default: out.write(c); break;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+package nl.bioinf.wvanhelvoirt.servlets;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.fileupload.UploadContext;
+
+/**
+ * The body of an upload request, read by the upload task on an upload thread. The headers and the input stream are
+ * taken from the request on the request thread, so the task does not use the request itself. Each read holds the
+ * lock of the request and fails once the request has ended, so the body is never read after a time out has completed
+ * the request; a time out that comes during a read waits until the read returns.
+ *
+ * @author Wout van Helvoirt
+ */
+final class UploadBody implements UploadContext {
+
+    /**
+     * @param contentType is the content type of the request.
+     */
+    private final String contentType;
+
+    /**
+     * @param characterEncoding is the character encoding of the request.
+     */
+    private final String characterEncoding;
+
+    /**
+     * @param contentLength is the length of the body, -1 when it is not known.
+     */
+    private final long contentLength;
+
+    /**
+     * @param inputStream is the body, it can not be read once the request has ended.
+     */
+    private final InputStream inputStream;
+
+    /**
+     * Constructor for an upload body, it is called on the request thread.
+     * @param request is the upload request.
+     * @param ended is true once the request has ended, reads lock on it.
+     * @throws IOException when the input stream of the request can not be opened.
+     */
+    UploadBody(final HttpServletRequest request, final AtomicBoolean ended) throws IOException {
+        this.contentType = request.getContentType();
+        this.characterEncoding = request.getCharacterEncoding();
+        this.contentLength = request.getContentLengthLong();
+        this.inputStream = new FilterInputStream(request.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                synchronized (ended) {
+                    checkEnded(ended);
+                    return super.read();
+                }
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                synchronized (ended) {
+                    checkEnded(ended);
+                    return super.read(b, off, len);
+                }
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                synchronized (ended) {
+                    checkEnded(ended);
+                    return super.skip(n);
+                }
+            }
+
+            @Override
+            public int available() throws IOException {
+                synchronized (ended) {
+                    checkEnded(ended);
+                    return super.available();
+                }
+            }
+
+            @Override
+            public void close() {
+
+                /* The container closes the body of the request. */
+            }
+        };
+    }
+
+    /**
+     * Stop reading when the request has ended.
+     * @param ended is true once the request has ended.
+     * @throws InterruptedIOException when the request has ended.
+     */
+    private static void checkEnded(final AtomicBoolean ended) throws InterruptedIOException {
+        if (ended.get()) {
+            throw new InterruptedIOException("The upload request has ended.");
+        }
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    @Deprecated
+    public int getContentLength() {
+        return (int) Math.min(contentLength, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+}
@@ -10,6 +10,6 @@
 <form method="post" enctype="multipart/form-data" action="<c:url value="/readgbk.do"/>">
     
     <%-- Upload file button and submit button --%>
-    <input id="button1" type="file" name="inputFile" accept=".gbk,.gb" required />
+    <input id="button1" type="file" name="inputFile" accept=".gbk,.gb,.gbff,.gz,.bgz" required />
     <input id="button4" class="buttonInactive" type="submit" value="Upload" />
 </form>
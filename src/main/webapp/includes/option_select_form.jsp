@@ -13,10 +13,13 @@
     <select id="button2" name="selectedOption" required>
         <option value="">-- Please select one of the following options.</option>
         <option value="Summary">Give me a summary of my GenBank file.</option>
+        <option value="Extended Summary">Give me a summary with composition, coding density and codon usage.</option>
         <option value="Fetch Gene(s)">Fetch the gene(s) that match my name pattern.</option>
         <option value="Fetch CDS(s)">Fetch the CDS(s) that match my name pattern.</option>
         <option value="Fetch Features">Fetch features within my coordinates region.</option>
+        <option value="Fetch Overlapping Features">Fetch features overlapping my coordinates region.</option>
         <option value="Find Site(s)">Find sequence site(s) that match my sequence pattern.</option>
+        <option value="Digest">Digest with my enzymes or motifs (e.g. EcoRI, BamHI or panel).</option>
     </select>
     <input id="button3" type="text" name="optionInputValue" placeholder="Please enter a pattern to search for." />
     <input id="button4" class="buttonInactive" type="submit" value="Search" />
@@ -16,14 +16,15 @@ $(function() {
     });
 
     /* When select option button toggled:
-       Summary selected, enable/show submit
+       Summary or Extended Summary selected, enable/show submit
        Other, disable sumbit and show pattern input. */
     $('#button2').on('change',function(){
         var selection = $(this).val();
-        if (selection !== "" && selection !== "Summary") {
+        var summary = selection === "Summary" || selection === "Extended Summary";
+        if (selection !== "" && !summary) {
             $("#button4").attr("disabled", true).slideUp(100);
             $("#button3").slideDown(100);
-        } else if (selection === "Summary") {
+        } else if (summary) {
             $("#button3").slideUp(100).val("");
             $("#button4").attr("disabled", false).slideDown(100);
         } else {
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015 Wout van Helvoirt [wout.van.helvoirt@gmail.com].
+ * All rights reserved.
+ */
+
+$(function() {
+    var more = $("#moreResults");
+    var loading = false;
+
+    /* Load the next page of result lines from the JSON servlet and add them before the more block. The attributes
+       are read as text, so an input like 1e5 is not turned into a number. */
+    function loadPage() {
+        if (loading || more.length === 0) {
+            return;
+        }
+        loading = true;
+        more.text("Loading more results...");
+        $.getJSON(more.attr("data-url"), {
+            selectedOption: more.attr("data-option"),
+            optionInputValue: more.attr("data-input"),
+            offset: more.attr("data-offset")
+        }).done(function(page) {
+            $.each(page.lines, function(index, line) {
+                $("<p></p>").addClass("outputMessageBlock").text(line).insertBefore(more);
+            });
+            if (page.next === null) {
+                more.remove();
+                more = $();
+            } else {
+                more.attr("data-offset", page.next).text("Show more results");
+            }
+        }).fail(function(xhr) {
+            more.text("Sorry, but the next results could not be loaded (" + xhr.status + "). Click to try again.");
+        }).always(function() {
+            loading = false;
+        });
+    }
+
+    /* Load the next page when the more block is clicked or scrolled into view. */
+    more.on("click", loadPage);
+    $(window).on("scroll", function() {
+        if (more.length !== 0 && $(window).scrollTop() + $(window).height() > more.offset().top - 200) {
+            loadPage();
+        }
+    });
+});
@@ -9,7 +9,7 @@
 <!DOCTYPE html>
 <html>
     <head>
-        <c:if test = "${sessionScope.gbkObj == null}">
+        <c:if test = "${sessionScope.gbkKey == null}">
             <c:redirect url="/index.jsp"/>
         </c:if>
         <title>${initParam.author} | ${initParam.page_name}</title>
@@ -18,6 +18,7 @@
 
         <script src="<c:url value="/js/jquery-2.1.4.min.js" />" type="text/javascript"></script>
         <script src="<c:url value="/js/formValidation.js" />" type="text/javascript"></script>
+        <script src="<c:url value="/js/resultPages.js" />" type="text/javascript"></script>
 
         <link href='https://fonts.googleapis.com/css?family=Josefin+Sans:600,700|Merriweather:700,400italic,400,300italic' rel='stylesheet' type='text/css'>
         <link rel="stylesheet" type="text/css" href="<c:url value="/css/main.css" />" />
@@ -28,7 +29,7 @@
 
            <%-- Page only when there is a GenBank object --%>
             <c:choose>
-                <c:when test = "${sessionScope.gbkObj != null}">
+                <c:when test = "${sessionScope.gbkKey != null}">
 
                     <%-- Header --%>
                     <jsp:include page="/includes/header.jsp" />
@@ -36,24 +37,30 @@
                     <div class="main clearfix">
                         <div id="blockone" class="primary clearfix">
                             <div class="entry-content">
-                                <p>Great, you have uploaded your GenBank file! Now, select one of the five
-                                    available options below and enter a search pattern (name, sequence or coordinates)
-                                    if necessary. Once done, hit the search button and behold the results.
+                                <p>Great, you have uploaded your GenBank file! Now, select one of the eight
+                                    available options below and enter a search pattern (name, sequence, coordinates or
+                                    enzymes) if necessary. Once done, hit the search button and behold the results.
                                 </p>
                                 <ul>
                                     <li class="textMessage">RegEx patterns can be used when searching by name or sequence.</li>
                                     <li class="textMessage">When using coordinates; please separate the two values by a comma.</li>
+                                    <li class="textMessage">When digesting; please separate the enzymes or motifs by a comma.</li>
                                 </ul>
 
                                 <%-- Form for selecting options --%>
                                 <jsp:include page="/includes/option_select_form.jsp" />
                             </div>
 
-                            <%-- Show output if available --%>
-                            <c:if test="${sessionScope.message != null}">
-                                <c:forEach var="i" items="${sessionScope.message}">
-                                    <p class="outputMessageBlock"><c:out value="${i}"/></p>
-                                </c:forEach>
+                            <%-- Show the first page of output if available, the next pages are loaded when needed --%>
+                            <c:if test="${message != null}">
+                                ${message.write(pageContext.out)}
+                                <c:if test="${message.nextOffset >= 0}">
+                                    <p id="moreResults" class="outputMessageBlock moreResults"
+                                       data-url="<c:url value="/searchgbk.json" />"
+                                       data-option="<c:out value="${message.selectedOption}" />"
+                                       data-input="<c:out value="${message.optionInputValue}" />"
+                                       data-offset="${message.nextOffset}">Show more results</p>
+                                </c:if>
                             </c:if>
                         </div>
                     </div>